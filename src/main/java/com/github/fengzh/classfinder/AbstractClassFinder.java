@@ -1,12 +1,20 @@
 package com.github.fengzh.classfinder;
 
 import java.net.URL;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 abstract class AbstractClassFinder implements ClassFinder {
 
+	/*
+	 * null: no class index for this finder
+	 */
+	ClassIndex getClassIndex() {
+		return null;
+	}
+
 	public URL[] findClasses(String className) {
 		return findResources(Util.resolveName(className));
 	}
@@ -28,9 +36,12 @@ abstract class AbstractClassFinder implements ClassFinder {
 	}
 
 	public String[] lookupClass(final String classNamePattern) {
+		return lookupClasses(Collections.singletonList(classNamePattern));
+	}
+
+	public String[] lookupClasses(List<String> classNamePatterns) {
 		return Util.listAllClassNamesByPattern(this,
-				Util.createNamePatternFilter(classNamePattern)).toArray(
-				new String[0]);
+				new WildcardMatcher(classNamePatterns)).toArray(new String[0]);
 	}
 
 	public Map<String, List<URL>> lookupClassAndLocation(
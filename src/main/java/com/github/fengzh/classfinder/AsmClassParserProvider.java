@@ -1,5 +1,6 @@
 package com.github.fengzh.classfinder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Set;
@@ -11,8 +12,25 @@ public class AsmClassParserProvider implements ClassParserProvider {
 	private static final String[] EMPTY = new String[0];
 
 	public Jclass parse(InputStream stream, String file) throws IOException {
-		ClassReader reader = new ClassReader(stream);
-		return toJclass(reader);
+		byte[] bytes = readBytes(stream);
+		Jclass jclass = toJclass(new ClassReader(bytes));
+		jclass.setClassFileSize(bytes.length);
+		return jclass;
+	}
+
+	private static byte[] readBytes(InputStream stream) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(4096);
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = stream.read(buffer)) != -1) {
+			output.write(buffer, 0, n);
+		}
+		return output.toByteArray();
+	}
+
+	@Override
+	public Jclass parseHeader(InputStream stream, String file) throws IOException {
+		return ClassHeaderReader.read(stream);
 	}
 
 	private Jclass toJclass(ClassReader reader) {
@@ -38,7 +38,7 @@ class AsmDependencyVisitor extends ClassVisitor {
 	private static final int CONST_IMETH = 11;
 
 	AsmDependencyVisitor(ClassReader reader, String textToFind) {
-		super(Opcodes.ASM7);
+		super(Opcodes.ASM9);
 		this.reader = reader;
 		this.textToFind = textToFind;
 	}
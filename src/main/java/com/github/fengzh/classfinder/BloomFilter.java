@@ -0,0 +1,75 @@
+package com.github.fengzh.classfinder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+ * Set of strings answering "certainly absent" or "maybe present", about 1%
+ * false positive with 10 bits per string.
+ */
+final class BloomFilter {
+
+	private static final int BITS_PER_ELEMENT = 10;
+
+	private static final int HASH_COUNT = 7;
+
+	private final long[] bits;
+
+	BloomFilter(int expectedCount) {
+		bits = new long[Math.max(1,
+				(int) (((long) expectedCount * BITS_PER_ELEMENT + 63) / 64))];
+	}
+
+	private BloomFilter(long[] bits) {
+		this.bits = bits;
+	}
+
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	void add(String value) {
+		int h1 = value.hashCode();
+		int h2 = mix(h1) | 1;
+		long bitCount = (long) bits.length * 64;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			long bit = ((h1 + i * h2) & 0xffffffffL) % bitCount;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	boolean mightContain(String value) {
+		int h1 = value.hashCode();
+		int h2 = mix(h1) | 1;
+		long bitCount = (long) bits.length * 64;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			long bit = ((h1 + i * h2) & 0xffffffffL) % bitCount;
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeInt(bits.length);
+		for (long word : bits) {
+			out.writeLong(word);
+		}
+	}
+
+	static BloomFilter read(DataInput in) throws IOException {
+		long[] bits = new long[in.readInt()];
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = in.readLong();
+		}
+		return new BloomFilter(bits);
+	}
+
+}
@@ -38,6 +38,11 @@ public interface ClassFinder {
 	 */
 	public String[] lookupClass(String classNamePattern);
 
+	/*
+	 * Same as lookupClass, with all patterns matched in one pass
+	 */
+	public String[] lookupClasses(List<String> classNamePatterns);
+
 	public Map<String, List<URL>> lookupClassAndLocation(String classNamePattern);
 
 	public String[] findPackageClasses(String packageName, boolean directPackage);
@@ -0,0 +1,181 @@
+package com.github.fengzh.classfinder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.github.fengzh.classfinder.ClassParserProvider.Jclass;
+
+/*
+ * Class name, super class name and interface names read from class file
+ * header. Stream is read into a buffer reused per thread, only up to the end
+ * of interfaces table, and only the needed names in constant pool are
+ * decoded. The returned Jclass keeps no class bytes.
+ */
+final class ClassHeaderReader {
+
+	private static final int MAGIC = 0xCAFEBABE;
+
+	private static final String[] EMPTY = new String[0];
+
+	private static final ThreadLocal<ClassHeaderReader> readers = ThreadLocal
+			.withInitial(ClassHeaderReader::new);
+
+	private byte[] buffer = new byte[8192];
+
+	// constant pool index -> position after tag
+	private int[] offsets = new int[1024];
+
+	private char[] chars = new char[256];
+
+	private InputStream stream;
+
+	private int length;
+
+	private int constantCount;
+
+	private ClassHeaderReader() {
+	}
+
+	static Jclass read(InputStream stream) throws IOException {
+		ClassHeaderReader reader = readers.get();
+		reader.stream = stream;
+		reader.length = 0;
+		try {
+			return reader.readHeader();
+		} finally {
+			reader.stream = null;
+		}
+	}
+
+	private Jclass readHeader() throws IOException {
+		fill(10);
+		if (readInt(0) != MAGIC) {
+			throw new IOException("not a class file");
+		}
+		constantCount = readUnsignedShort(8);
+		if (offsets.length < constantCount) {
+			offsets = new int[constantCount];
+		}
+		int pos = 10;
+		for (int i = 1; i < constantCount; i++) {
+			fill(pos + 3);
+			offsets[i] = pos + 1;
+			int tag = buffer[pos];
+			switch (tag) {
+			case 1: // Utf8
+				pos += 3 + readUnsignedShort(pos + 1);
+				break;
+			case 7: // Class
+			case 8: // String
+			case 16: // MethodType
+			case 19: // Module
+			case 20: // Package
+				pos += 3;
+				break;
+			case 15: // MethodHandle
+				pos += 4;
+				break;
+			case 3: // Integer
+			case 4: // Float
+			case 9: // Fieldref
+			case 10: // Methodref
+			case 11: // InterfaceMethodref
+			case 12: // NameAndType
+			case 17: // Dynamic
+			case 18: // InvokeDynamic
+				pos += 5;
+				break;
+			case 5: // Long
+			case 6: // Double
+				pos += 9;
+				if (++i < constantCount) {
+					// unusable slot, not left from previous class
+					offsets[i] = 0;
+				}
+				break;
+			default:
+				throw new IOException("invalid constant pool tag: " + tag);
+			}
+		}
+		// access flags, this class, super class, interfaces count
+		fill(pos + 8);
+		int thisClass = readUnsignedShort(pos + 2);
+		int superClass = readUnsignedShort(pos + 4);
+		int interfaceCount = readUnsignedShort(pos + 6);
+		int end = pos + 8 + interfaceCount * 2;
+		fill(end);
+		Jclass jclass = new Jclass();
+		jclass.setClassName(readClassName(thisClass));
+		jclass.setSuperClassName(superClass == 0 ? Object.class.getName()
+				: readClassName(superClass));
+		String[] interfaceNames = interfaceCount == 0 ? EMPTY
+				: new String[interfaceCount];
+		for (int i = 0; i < interfaceCount; i++) {
+			interfaceNames[i] = readClassName(readUnsignedShort(pos + 8 + i * 2));
+		}
+		jclass.setInterfaceNames(interfaceNames);
+		jclass.setClassFileSize(end);
+		return jclass;
+	}
+
+	private void fill(int end) throws IOException {
+		if (end > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(end, buffer.length * 2));
+		}
+		while (length < end) {
+			int n = stream.read(buffer, length, buffer.length - length);
+			if (n < 0) {
+				throw new EOFException("truncated class file");
+			}
+			length += n;
+		}
+	}
+
+	private int readUnsignedShort(int pos) {
+		return ((buffer[pos] & 0xFF) << 8) | (buffer[pos + 1] & 0xFF);
+	}
+
+	private int readInt(int pos) {
+		return (readUnsignedShort(pos) << 16) | readUnsignedShort(pos + 2);
+	}
+
+	/*
+	 * name of Class constant, like "a.b.C" for "a/b/C"
+	 */
+	private String readClassName(int index) throws IOException {
+		int utf8 = getOffset(readUnsignedShort(getOffset(index, 7)), 1);
+		return readUtf8(utf8 + 2, readUnsignedShort(utf8));
+	}
+
+	private int getOffset(int index, int tag) throws IOException {
+		if (index <= 0 || index >= constantCount || offsets[index] == 0
+				|| buffer[offsets[index] - 1] != tag) {
+			throw new IOException("invalid constant pool index: " + index);
+		}
+		return offsets[index];
+	}
+
+	// modified UTF-8, '/' is returned as '.'
+	private String readUtf8(int pos, int utfLength) {
+		if (chars.length < utfLength) {
+			chars = new char[utfLength];
+		}
+		int count = 0;
+		int end = pos + utfLength;
+		while (pos < end) {
+			int c = buffer[pos++] & 0xFF;
+			if (c < 0x80) {
+				chars[count++] = c == '/' ? '.' : (char) c;
+			} else if (c < 0xE0) {
+				chars[count++] = (char) (((c & 0x1F) << 6) | (buffer[pos++] & 0x3F));
+			} else {
+				chars[count++] = (char) (((c & 0x0F) << 12)
+						| ((buffer[pos++] & 0x3F) << 6) | (buffer[pos++] & 0x3F));
+			}
+		}
+		return new String(chars, 0, count);
+	}
+
+}
@@ -0,0 +1,673 @@
+package com.github.fengzh.classfinder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.fengzh.classfinder.Util.ClassFileAttribute;
+
+/*
+ * Class name store per class path entry (jar file or class folder), keyed by
+ * canonical path and fingerprinted by size and last modified time, so unchanged
+ * jar files are not opened again.
+ */
+final class ClassIndex {
+
+	private static final int MAGIC = 0xCAFEC1A5;
+
+	private static final int VERSION = 9;
+
+	static class Entry {
+
+		private final String path;
+
+		private final boolean folder;
+
+		// jar file size, or class file count for folder
+		private long size;
+
+		// jar file time, or latest class file time for folder
+		private long lastModified;
+
+		private boolean manifest;
+
+		private boolean rootEntry;
+
+		private String classPath;
+
+		// target release of multi-release jar, 0 for others
+		private int release;
+
+		private final Map<String, ClassFileAttribute> classes = new LinkedHashMap<>();
+
+		// sorted class names for prefix lookup, built on first use
+		private String[] sortedNames;
+
+		// directories holding any jar entry, see Util.addDirectories
+		private final Set<String> directories = new HashSet<>();
+
+		// all jar entry names, null for folder
+		private BloomFilter entryNames;
+
+		// class name -> super class name followed by interface names
+		private final Map<String, String[]> superTypes = new HashMap<>();
+
+		// class name -> referred class names, method names and field names
+		private final Map<String, String[][]> references = new HashMap<>();
+
+		// class name -> constant strings
+		private final Map<String, String[]> strings = new HashMap<>();
+
+		Entry(File file, boolean folder) {
+			this.path = keyOf(file);
+			this.folder = folder;
+			if (!folder) {
+				this.size = file.length();
+				this.lastModified = file.lastModified();
+			}
+		}
+
+		private Entry(DataInput in) throws IOException {
+			path = in.readUTF();
+			folder = in.readBoolean();
+			size = in.readLong();
+			lastModified = in.readLong();
+			manifest = in.readBoolean();
+			rootEntry = in.readBoolean();
+			classPath = in.readBoolean() ? readLongString(in) : null;
+			release = in.readInt();
+			// written in sorted order, so no sorting for prefix lookup
+			String[] classNames = new String[in.readInt()];
+			boolean sorted = true;
+			for (int i = 0; i < classNames.length; i++) {
+				classNames[i] = in.readUTF();
+				classes.put(classNames[i], ClassFileAttribute.read(in));
+				sorted = sorted && (i == 0 || classNames[i - 1].compareTo(classNames[i]) < 0);
+			}
+			sortedNames = sorted ? classNames : null;
+			int directoryCount = in.readInt();
+			for (int i = 0; i < directoryCount; i++) {
+				directories.add(in.readUTF());
+			}
+			entryNames = in.readBoolean() ? BloomFilter.read(in) : null;
+			int superTypeCount = in.readInt();
+			for (int i = 0; i < superTypeCount; i++) {
+				String className = in.readUTF();
+				String[] names = new String[in.readUnsignedShort()];
+				for (int j = 0; j < names.length; j++) {
+					names[j] = in.readUTF();
+				}
+				superTypes.put(className, names);
+			}
+		}
+
+		private void write(DataOutput out) throws IOException {
+			out.writeUTF(path);
+			out.writeBoolean(folder);
+			out.writeLong(size);
+			out.writeLong(lastModified);
+			out.writeBoolean(manifest);
+			out.writeBoolean(rootEntry);
+			out.writeBoolean(classPath != null);
+			if (classPath != null) {
+				writeLongString(out, classPath);
+			}
+			out.writeInt(release);
+			out.writeInt(classes.size());
+			for (String className : getSortedNames()) {
+				out.writeUTF(className);
+				classes.get(className).write(out);
+			}
+			out.writeInt(directories.size());
+			for (String directory : directories) {
+				out.writeUTF(directory);
+			}
+			out.writeBoolean(entryNames != null);
+			if (entryNames != null) {
+				entryNames.write(out);
+			}
+			out.writeInt(superTypes.size());
+			for (Map.Entry<String, String[]> superType : superTypes.entrySet()) {
+				out.writeUTF(superType.getKey());
+				out.writeShort(superType.getValue().length);
+				for (String name : superType.getValue()) {
+					out.writeUTF(name);
+				}
+			}
+		}
+
+		String getPath() {
+			return path;
+		}
+
+		boolean isFolder() {
+			return folder;
+		}
+
+		boolean hasManifest() {
+			return manifest;
+		}
+
+		boolean hasRootEntry() {
+			return rootEntry;
+		}
+
+		/*
+		 * null: no Class-Path in manifest
+		 */
+		String getClassPath() {
+			return classPath;
+		}
+
+		void setManifest(boolean manifest, String classPath) {
+			this.manifest = manifest;
+			this.classPath = classPath;
+		}
+
+		void setRelease(int release) {
+			this.release = release;
+		}
+
+		void setRootEntry(boolean rootEntry) {
+			this.rootEntry = rootEntry;
+		}
+
+		Map<String, ClassFileAttribute> getClasses() {
+			return classes;
+		}
+
+		/*
+		 * empty for folder
+		 */
+		Set<String> getDirectories() {
+			return directories;
+		}
+
+		void setEntryNames(BloomFilter entryNames) {
+			this.entryNames = entryNames;
+		}
+
+		/*
+		 * false: jar has no such entry, true: may have
+		 */
+		boolean mightHaveEntry(String name) {
+			return entryNames == null || entryNames.mightContain(name);
+		}
+
+		/*
+		 * class names starting with any of prefixes, null: all
+		 */
+		List<String> getClassNames(List<String> prefixes) {
+			if (prefixes == null) {
+				return new ArrayList<>(classes.keySet());
+			}
+			String[] names = getSortedNames();
+			List<String> found = new ArrayList<>();
+			for (String prefix : prefixes) {
+				int id = Arrays.binarySearch(names, prefix);
+				for (id = id < 0 ? -id - 1 : id; id < names.length
+						&& names[id].startsWith(prefix); id++) {
+					found.add(names[id]);
+				}
+			}
+			return found;
+		}
+
+		private String[] getSortedNames() {
+			String[] names = sortedNames;
+			if (names == null) {
+				names = classes.keySet().toArray(new String[classes.size()]);
+				Arrays.sort(names);
+				sortedNames = names;
+			}
+			return names;
+		}
+
+		void addClass(String className, ClassFileAttribute attribute) {
+			classes.put(className, attribute);
+			sortedNames = null;
+			if (folder) {
+				size++;
+				lastModified = Math.max(lastModified, attribute.getLastModified());
+			}
+		}
+
+		boolean matches(File file) {
+			return !folder && file.length() == size
+					&& file.lastModified() == lastModified
+					&& (release == 0 || release == ReleaseOverlay.getTargetRelease());
+		}
+
+		boolean hasSameClasses(Entry other) {
+			if (classes.size() != other.classes.size()) {
+				return false;
+			}
+			for (Map.Entry<String, ClassFileAttribute> classEntry : classes
+					.entrySet()) {
+				ClassFileAttribute otherAttr = other.classes.get(classEntry
+						.getKey());
+				if (otherAttr == null
+						|| !otherAttr.isSameContent(classEntry.getValue())) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean isSameClass(Entry previous, String className) {
+			ClassFileAttribute oldAttr = previous.classes.get(className);
+			ClassFileAttribute newAttr = classes.get(className);
+			return oldAttr != null && newAttr != null
+					&& newAttr.isSameContent(oldAttr);
+		}
+
+		// keep data parsed from classes not changed
+		private void retainClassData(Entry previous) {
+			for (Map.Entry<String, String[]> superType : previous.superTypes
+					.entrySet()) {
+				if (isSameClass(previous, superType.getKey())) {
+					superTypes.put(superType.getKey(), superType.getValue());
+				}
+			}
+			for (Map.Entry<String, String[][]> reference : previous.references
+					.entrySet()) {
+				if (isSameClass(previous, reference.getKey())) {
+					references.put(reference.getKey(), reference.getValue());
+				}
+			}
+			for (Map.Entry<String, String[]> classStrings : previous.strings
+					.entrySet()) {
+				if (isSameClass(previous, classStrings.getKey())) {
+					strings.put(classStrings.getKey(), classStrings.getValue());
+				}
+			}
+		}
+	}
+
+	private Map<String, Entry> entries = new HashMap<>();
+
+	// entries confirmed up to date in this session
+	private final Map<String, Entry> verified = new HashMap<>();
+
+	// file loaded from or saved to, and not changed since then
+	private File unchangedFile;
+
+	// file sections are read from when first used, null: new index
+	private File sectionSource;
+
+	private final Section<String[][]> referencesSection = new Section<String[][]>(
+			".refs") {
+		@Override
+		Map<String, String[][]> of(Entry entry) {
+			return entry.references;
+		}
+
+		@Override
+		String[][] toNames(String[][] references) {
+			return references;
+		}
+
+		@Override
+		String[][] fromNames(String[][] names) {
+			return names;
+		}
+	};
+
+	private final Section<String[]> stringsSection = new Section<String[]>(
+			".strings") {
+		@Override
+		Map<String, String[]> of(Entry entry) {
+			return entry.strings;
+		}
+
+		@Override
+		String[][] toNames(String[] strings) {
+			return new String[][] { strings };
+		}
+
+		@Override
+		String[] fromNames(String[][] names) {
+			return names[0];
+		}
+	};
+
+	/*
+	 * class data stored in its own file beside index file, like "a.idx.refs",
+	 * and read only when first used, as most searches need none of it. Data
+	 * of a class is kept only if the class is unchanged since it was stored.
+	 */
+	private abstract class Section<V> {
+
+		private final String suffix;
+
+		private boolean loaded = true;
+
+		private boolean changed;
+
+		Section(String suffix) {
+			this.suffix = suffix;
+		}
+
+		abstract Map<String, V> of(Entry entry);
+
+		abstract String[][] toNames(V value);
+
+		abstract V fromNames(String[][] names);
+
+		File fileOf(File indexFile) {
+			return new File(indexFile.getPath() + suffix);
+		}
+
+		V get(Entry entry, String className) {
+			load();
+			return of(entry).get(className);
+		}
+
+		void put(Entry entry, String className, V value) {
+			load();
+			of(entry).put(className, value);
+			changed = true;
+		}
+
+		void reset() {
+			loaded = false;
+			changed = false;
+		}
+
+		/*
+		 * unreadable section is taken as empty, its data is read from classes
+		 * again
+		 */
+		void load() {
+			if (loaded) {
+				return;
+			}
+			loaded = true;
+			File file = fileOf(sectionSource);
+			if (!file.exists()) {
+				return;
+			}
+			try (DataInputStream in = new DataInputStream(new GZIPInputStream(
+					new BufferedInputStream(new FileInputStream(file))))) {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					throw new IOException("unsupported index file: "
+							+ file.getAbsolutePath());
+				}
+				int entryCount = in.readInt();
+				for (int i = 0; i < entryCount; i++) {
+					Entry entry = entries.get(in.readUTF());
+					String[] table = new String[in.readInt()];
+					for (int j = 0; j < table.length; j++) {
+						table[j] = in.readUTF();
+					}
+					int classCount = in.readInt();
+					for (int j = 0; j < classCount; j++) {
+						String className = in.readUTF();
+						ClassFileAttribute attribute = ClassFileAttribute.read(in);
+						String[][] names = new String[in.readUnsignedByte()][];
+						for (int kind = 0; kind < names.length; kind++) {
+							names[kind] = new String[in.readInt()];
+							for (int k = 0; k < names[kind].length; k++) {
+								names[kind][k] = table[in.readInt()];
+							}
+						}
+						ClassFileAttribute current = entry == null ? null
+								: entry.classes.get(className);
+						if (current != null && current.isSameContent(attribute)) {
+							of(entry).put(className, fromNames(names));
+						}
+					}
+				}
+			} catch (IOException e) {
+				// data read so far is kept, each class is checked above
+			}
+		}
+
+		void save(File indexFile) throws IOException {
+			if (!changed && indexFile.equals(sectionSource)) {
+				return;
+			}
+			// carried over to other file even if not used in this session
+			load();
+			List<Entry> stored = new ArrayList<>();
+			for (Entry entry : entries.values()) {
+				if (!of(entry).isEmpty()) {
+					stored.add(entry);
+				}
+			}
+			File file = fileOf(indexFile);
+			if (stored.isEmpty()) {
+				if (file.exists() && !file.delete()) {
+					throw new IOException("cannot delete " + file.getAbsolutePath());
+				}
+				changed = false;
+				return;
+			}
+			try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+					new BufferedOutputStream(new FileOutputStream(file))))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(stored.size());
+				for (Entry entry : stored) {
+					out.writeUTF(entry.getPath());
+					// names are shared by many classes
+					Map<String, Integer> table = new LinkedHashMap<>();
+					for (V value : of(entry).values()) {
+						for (String[] kindNames : toNames(value)) {
+							for (String name : kindNames) {
+								table.putIfAbsent(name, table.size());
+							}
+						}
+					}
+					out.writeInt(table.size());
+					for (String name : table.keySet()) {
+						out.writeUTF(name);
+					}
+					out.writeInt(of(entry).size());
+					for (Map.Entry<String, V> classData : of(entry).entrySet()) {
+						out.writeUTF(classData.getKey());
+						entry.classes.get(classData.getKey()).write(out);
+						String[][] names = toNames(classData.getValue());
+						out.writeByte(names.length);
+						for (String[] kindNames : names) {
+							out.writeInt(kindNames.length);
+							for (String name : kindNames) {
+								out.writeInt(table.get(name));
+							}
+						}
+					}
+				}
+			}
+			changed = false;
+		}
+	}
+
+	// manifest Class-Path may be longer than writeUTF limit
+	private static void writeLongString(DataOutput out, String value)
+			throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readLongString(DataInput in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String keyOf(File file) {
+		return Util.toCanonicalStyle(file).getPath();
+	}
+
+	/*
+	 * null: not indexed, or changed since indexed
+	 */
+	Entry getEntry(File file) {
+		String key = keyOf(file);
+		Entry entry;
+		synchronized (this) {
+			entry = verified.get(key);
+			if (entry != null) {
+				return entry;
+			}
+			entry = entries.get(key);
+		}
+		if (entry != null && entry.matches(file)) {
+			synchronized (this) {
+				verified.put(key, entry);
+			}
+			return entry;
+		}
+		return null;
+	}
+
+	/*
+	 * entry as stored, without checking if it is up to date
+	 */
+	synchronized Entry getStoredEntry(File file) {
+		return entries.get(keyOf(file));
+	}
+
+	String[][] getReferences(File file, String className) {
+		String key = keyOf(file);
+		synchronized (this) {
+			Entry entry = verified.get(key);
+			return entry == null ? null : referencesSection.get(entry, className);
+		}
+	}
+
+	void putReferences(File file, String className, String[][] references) {
+		String key = keyOf(file);
+		synchronized (this) {
+			Entry entry = verified.get(key);
+			if (entry != null && entry.classes.containsKey(className)) {
+				referencesSection.put(entry, className, references);
+			}
+		}
+	}
+
+	String[] getStrings(File file, String className) {
+		String key = keyOf(file);
+		synchronized (this) {
+			Entry entry = verified.get(key);
+			return entry == null ? null : stringsSection.get(entry, className);
+		}
+	}
+
+	void putStrings(File file, String className, String[] strings) {
+		String key = keyOf(file);
+		synchronized (this) {
+			Entry entry = verified.get(key);
+			if (entry != null && entry.classes.containsKey(className)) {
+				stringsSection.put(entry, className, strings);
+			}
+		}
+	}
+
+	synchronized List<Entry> getStoredEntries() {
+		return new ArrayList<>(entries.values());
+	}
+
+	synchronized void verifyEntry(Entry entry) {
+		verified.put(entry.getPath(), entry);
+	}
+
+	synchronized void removeEntry(Entry entry) {
+		entries.remove(entry.getPath());
+		verified.remove(entry.getPath());
+		unchangedFile = null;
+	}
+
+	synchronized void putEntry(Entry entry) {
+		Entry previous = entries.put(entry.getPath(), entry);
+		// folder is scanned again in each session
+		if (previous == null || !entry.isFolder()
+				|| !entry.hasSameClasses(previous)) {
+			unchangedFile = null;
+		}
+		if (previous != null) {
+			entry.retainClassData(previous);
+		}
+		verified.put(entry.getPath(), entry);
+	}
+
+	String[] getSuperTypes(File file, String className) {
+		String key = keyOf(file);
+		synchronized (this) {
+			Entry entry = verified.get(key);
+			return entry == null ? null : entry.superTypes.get(className);
+		}
+	}
+
+	void putSuperTypes(File file, String className, String[] superTypes) {
+		String key = keyOf(file);
+		synchronized (this) {
+			Entry entry = verified.get(key);
+			if (entry != null && entry.classes.containsKey(className)) {
+				entry.superTypes.put(className, superTypes);
+				unchangedFile = null;
+			}
+		}
+	}
+
+	synchronized void load(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new GZIPInputStream(
+				new BufferedInputStream(new FileInputStream(file))))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("unsupported index file: "
+						+ file.getAbsolutePath());
+			}
+			int count = in.readInt();
+			Map<String, Entry> loaded = new HashMap<>(count * 2);
+			for (int i = 0; i < count; i++) {
+				Entry entry = new Entry(in);
+				loaded.put(entry.getPath(), entry);
+			}
+			entries = loaded;
+			verified.clear();
+			unchangedFile = file;
+			sectionSource = file;
+			referencesSection.reset();
+			stringsSection.reset();
+		}
+	}
+
+	synchronized void save(File file) throws IOException {
+		referencesSection.save(file);
+		stringsSection.save(file);
+		sectionSource = file;
+		if (file.equals(unchangedFile) && file.exists()) {
+			return;
+		}
+		try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (Entry entry : entries.values()) {
+				entry.write(out);
+			}
+		}
+		unchangedFile = file;
+	}
+
+}
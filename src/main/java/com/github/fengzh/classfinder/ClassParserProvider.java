@@ -16,6 +16,8 @@ public interface ClassParserProvider {
 
 		private Object nativeObject;
 
+		private int classFileSize;
+
 		public Object getNativeObject() {
 			return nativeObject;
 		}
@@ -48,10 +50,26 @@ public interface ClassParserProvider {
 			return interfaceNames;
 		}
 
+		public int getClassFileSize() {
+			return classFileSize;
+		}
+
+		public void setClassFileSize(int classFileSize) {
+			this.classFileSize = classFileSize;
+		}
+
 	}
 
 	public Jclass parse(InputStream stream, String file) throws IOException;
 
+	/*
+	 * class name, super class name and interface names only, for type
+	 * hierarchy. Other methods do not accept the returned class.
+	 */
+	public default Jclass parseHeader(InputStream stream, String file) throws IOException {
+		return parse(stream, file);
+	}
+
 	public Set<String> getDependencies(Jclass jClass);
 
 	public Set<String> getStrings(Jclass jClass, String text);
@@ -2,34 +2,421 @@ package com.github.fengzh.classfinder;
 
 import com.github.fengzh.classfinder.ClassParserProvider.Jclass;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 public class ClassPathFinder extends AbstractClassFinder implements ClassFinder {
 
     private static ClassParserProvider parserProvider = detectParseProvider();
 
-    private final URLClassPath urlClassPath;
+    private static final int MAX_CACHED_CLASSES = 20000;
+
+    private static final long MAX_CACHED_CLASS_BYTES = 64L * 1024 * 1024;
+
+    // referred by signatures, but not classes
+    private static final Set<String> PRIMITIVE_TYPES = new HashSet<>(Arrays.asList("void", "boolean", "byte",
+            "char", "short", "int", "long", "float", "double"));
+
+    private static final String PRIMITIVE_DESCRIPTORS = "VZBCSIJFD";
+
+    public static class IndexChange {
+
+        public enum Type {
+            ADDED, MODIFIED, REMOVED,
+            // cannot be read, index entry is dropped
+            FAILED
+        }
+
+        private final URL source;
+
+        private final Type type;
+
+        private final long elapsedNanos;
+
+        IndexChange(URL source, Type type, long elapsedNanos) {
+            this.source = source;
+            this.type = type;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public URL getSource() {
+            return source;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+    }
+
+    public static class ClassLocation {
+
+        private final String className;
+
+        private final URL codeSource;
+
+        private final boolean folder;
+
+        ClassLocation(String className, URL codeSource, boolean folder) {
+            this.className = className;
+            this.codeSource = codeSource;
+            this.folder = folder;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public URL getCodeSource() {
+            return codeSource;
+        }
+
+        /*
+         * class file name inside code source
+         */
+        public String getEntryName() {
+            return Util.resolveName(className);
+        }
+
+        public boolean isFolder() {
+            return folder;
+        }
+
+    }
+
+    public static class SourceDependency {
+
+        private final URL source;
+
+        private final URL target;
+
+        private final String[] classNames;
+
+        private final int referenceCount;
+
+        SourceDependency(URL source, URL target, String[] classNames, int referenceCount) {
+            this.source = source;
+            this.target = target;
+            this.classNames = classNames;
+            this.referenceCount = referenceCount;
+        }
+
+        public URL getSource() {
+            return source;
+        }
+
+        /*
+         * null: referred classes are not in class path
+         */
+        public URL getTarget() {
+            return target;
+        }
+
+        /*
+         * referred classes, sorted
+         */
+        public String[] getClassNames() {
+            return classNames.clone();
+        }
+
+        /*
+         * number of referring and referred class pairs
+         */
+        public int getReferenceCount() {
+            return referenceCount;
+        }
+
+    }
+
+    private URLClassPath urlClassPath;
+
+    // null: no index file is used, class path entries are scanned lazily on each lookup
+    private ClassIndex classIndex;
+
+    // class name -> locations, in class path order
+    private Map<String, List<URL>> classLocations;
+
+    private PackageIndex packageIndex;
+
+    private TypeHierarchy typeHierarchy;
+
+    private DependencyGraph dependencyGraph;
+
+    private boolean dependencyGraphCompleted;
+
+    private boolean typeHierarchyCompleted;
+
+    private ReferenceIndex referenceIndex;
+
+    private StringIndex stringIndex;
+
+    private final JclassCache jclassCache = new JclassCache(MAX_CACHED_CLASSES, MAX_CACHED_CLASS_BYTES);
 
     public ClassPathFinder(ClassPathBuilder builder) {
         urlClassPath = new URLClassPath(builder.getURLs());
     }
 
+    /*
+     * keep class path entries in class index, so it can be saved and loaded again. Must be
+     * called before any lookup.
+     */
+    public void enableIndex() {
+        if (classIndex == null) {
+            classIndex = new ClassIndex();
+            URL[] urls = urlClassPath.getURLs();
+            urlClassPath.close();
+            urlClassPath = new URLClassPath(urls, classIndex);
+        }
+    }
+
+    public void loadIndex(File indexFile) throws IOException {
+        enableIndex();
+        classIndex.load(indexFile);
+    }
+
+    public void saveIndex(File indexFile) throws IOException {
+        if (classIndex == null) {
+            throw new IllegalStateException("class index is not enabled");
+        }
+        classIndex.save(indexFile);
+    }
+
+    /*
+     * Compare each class path entry (including manifest Class-Path ones) with its indexed
+     * fingerprint, and rescan only added or modified jar files and class folder files.
+     */
+    public List<IndexChange> refreshIndex() {
+        enableIndex();
+        List<IndexChange> changes = new ArrayList<>();
+        // code source -> class names before and after, for modified entries listed same way, of same
+        // class path and without nested archives
+        Map<URL, List<Set<String>>> modifiedClasses = new LinkedHashMap<>();
+        Set<String> visited = new HashSet<>();
+        Stack<URL> stack = new Stack<>();
+        URL[] urls = getURLClassPath().getURLs();
+        for (int i = urls.length - 1; i >= 0; i--) {
+            stack.push(urls[i]);
+        }
+        while (!stack.isEmpty()) {
+            URL url = stack.pop();
+            if (!visited.add(url.toString())) {
+                continue;
+            }
+            boolean folder = url.getFile().endsWith("/");
+            if (Util.isJarUrl(url) && url.getFile().endsWith("!/")) {
+                url = Util.extractBaseURL(url, "");
+                folder = false;
+            }
+            File file;
+            try {
+                file = Util.toFile(url);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // not local file
+                continue;
+            }
+            long start = System.nanoTime();
+            ClassIndex.Entry stored = classIndex.getStoredEntry(file);
+            if (!file.exists()) {
+                Util.getJarFilePool().invalidate(file);
+                NestedArchive.invalidate(file);
+                if (stored != null) {
+                    classIndex.removeEntry(stored);
+                    changes.add(new IndexChange(url, IndexChange.Type.REMOVED, System.nanoTime() - start));
+                }
+                continue;
+            }
+            ClassIndex.Entry entry;
+            if (stored != null && stored.matches(file)) {
+                entry = stored;
+            } else {
+                if (!folder) {
+                    // content read before may be out of date
+                    Util.getJarFilePool().invalidate(file);
+                    NestedArchive.invalidate(file);
+                }
+                try {
+                    entry = folder ? Util.indexClassFolder(file) : Util.indexJarFile(file);
+                } catch (IOException e) {
+                    if (stored != null) {
+                        classIndex.removeEntry(stored);
+                    }
+                    changes.add(new IndexChange(url, IndexChange.Type.FAILED, System.nanoTime() - start));
+                    continue;
+                }
+                if (stored != null && stored.isFolder() && entry.hasSameClasses(stored)) {
+                    entry = stored;
+                }
+            }
+            if (entry == stored) {
+                classIndex.verifyEntry(entry);
+            } else {
+                if (stored != null && stored.hasManifest() == entry.hasManifest()
+                        && stored.hasRootEntry() == entry.hasRootEntry()
+                        && Objects.equals(stored.getClassPath(), entry.getClassPath())
+                        && !NestedArchive.mayHaveNested(stored.getDirectories())
+                        && !NestedArchive.mayHaveNested(entry.getDirectories())) {
+                    modifiedClasses.put(url, Arrays.asList(new HashSet<>(stored.getClasses().keySet()),
+                            new HashSet<>(entry.getClasses().keySet())));
+                }
+                classIndex.putEntry(entry);
+                changes.add(new IndexChange(url,
+                        stored == null ? IndexChange.Type.ADDED : IndexChange.Type.MODIFIED,
+                        System.nanoTime() - start));
+            }
+            if (entry.getClassPath() != null) {
+                try {
+                    URL[] classPath = URLClassPath.JarLoader.parseClassPath(url, entry.getClassPath());
+                    for (int i = classPath.length - 1; i >= 0; i--) {
+                        stack.push(classPath[i]);
+                    }
+                } catch (MalformedURLException ignored) {
+                }
+            }
+        }
+        for (ClassIndex.Entry stored : classIndex.getStoredEntries()) {
+            File file = new File(stored.getPath());
+            if (!file.exists()) {
+                classIndex.removeEntry(stored);
+                try {
+                    changes.add(new IndexChange(file.toURI().toURL(), IndexChange.Type.REMOVED, 0));
+                } catch (MalformedURLException ignored) {
+                }
+            }
+        }
+        if (!changes.isEmpty()) {
+            // Drop loaders and classes parsed on previous content. If only classes of entries changed,
+            // class locations are patched per entry. Other maps below are rebuilt from the class index
+            // in memory, taking super types and references of unchanged classes from it.
+            jclassCache.clear();
+            synchronized (this) {
+                if (classLocations != null && modifiedClasses.size() == changes.size()) {
+                    Set<String> classNames = new HashSet<>(classLocations.keySet());
+                    Map<String, Integer> ranks = getCodeSourceRanks();
+                    for (Map.Entry<URL, List<Set<String>>> modified : modifiedClasses.entrySet()) {
+                        patchClassLocations(modified.getKey(), modified.getValue().get(0),
+                                modified.getValue().get(1), ranks);
+                    }
+                    if (!classNames.equals(classLocations.keySet())) {
+                        packageIndex = null;
+                    }
+                } else {
+                    classLocations = null;
+                    packageIndex = null;
+                }
+                typeHierarchy = null;
+                dependencyGraph = null;
+                referenceIndex = null;
+                stringIndex = null;
+            }
+            urlClassPath.close();
+            urlClassPath = new URLClassPath(urls, classIndex);
+        }
+        return changes;
+    }
+
+    /*
+     * move locations of classes removed from or added to the code source, others keep loader order
+     */
+    private void patchClassLocations(URL source, Set<String> oldNames, Set<String> newNames,
+            Map<String, Integer> ranks) {
+        String key = source.toString();
+        for (String className : oldNames) {
+            List<URL> locations = classLocations.get(className);
+            if (!newNames.contains(className) && locations != null) {
+                locations.removeIf(url -> url.toString().equals(key));
+                if (locations.isEmpty()) {
+                    classLocations.remove(className);
+                }
+            }
+        }
+        int rank = ranks.getOrDefault(key, Integer.MAX_VALUE);
+        for (String className : newNames) {
+            if (!oldNames.contains(className)) {
+                List<URL> locations = classLocations.computeIfAbsent(className, k -> new ArrayList<>());
+                int i = 0;
+                while (i < locations.size() && ranks.getOrDefault(locations.get(i).toString(), Integer.MAX_VALUE) < rank) {
+                    i++;
+                }
+                locations.add(i, source);
+            }
+        }
+    }
+
+    @Override
+    ClassIndex getClassIndex() {
+        return classIndex;
+    }
+
     private static ClassParserProvider detectParseProvider() {
         return new AsmClassParserProvider();
     }
 
-    private static Jclass parseJavaClass(URL url) {
+    private Jclass parseJavaClass(URL url) {
         if (url == null)
             return null;
-        try (InputStream stream = url.openStream()) {
-            return parserProvider.parse(stream, url.getFile());
+        // resource url identifies both code source and class name
+        String key = url.toString();
+        Jclass javaClass = jclassCache.get(key);
+        if (javaClass != null) {
+            return javaClass;
+        }
+        try (InputStream stream = Util.openStream(url)) {
+            javaClass = parserProvider.parse(stream, url.getFile());
         } catch (ClassFormatError | Exception e) {
             return null;
         }
+        jclassCache.put(key, javaClass);
+        return javaClass;
+    }
+
+    /*
+     * class header only, not kept in class cache
+     */
+    private static Jclass parseClassHeader(URL url) {
+        if (url == null) {
+            return null;
+        }
+        try (InputStream stream = Util.openStream(url)) {
+            return parserProvider.parseHeader(stream, url.getFile());
+        } catch (ClassFormatError | Exception e) {
+            return null;
+        }
+    }
+
+    public long getClassCacheHitCount() {
+        return jclassCache.getHitCount();
+    }
+
+    public long getClassCacheMissCount() {
+        return jclassCache.getMissCount();
+    }
+
+    public long getClassCacheEvictionCount() {
+        return jclassCache.getEvictionCount();
+    }
+
+    /*
+     * jar files opened by all finders
+     */
+    public long getJarFileOpenCount() {
+        return Util.getJarFilePool().getOpenCount();
+    }
+
+    public long getJarFileEvictionCount() {
+        return Util.getJarFilePool().getEvictionCount();
     }
 
     public URL[] findCodeSourceStack(String className) {
@@ -86,6 +473,64 @@ public class ClassPathFinder extends AbstractClassFinder implements ClassFinder
         }
     }
 
+    /*
+     * all locations of classes in one pass over class path, ordered by class name, then by class path order
+     */
+    public List<ClassLocation> locateClasses(Collection<String> classNames) {
+        if (classIndex == null) {
+            // class names are looked up directly, instead of listing all classes
+            return locateClassesByResource(classNames);
+        }
+        List<URL> codeSources = getURLClassPath().getCodeSourceURLs();
+        List<Callable<List<ClassLocation>>> tasks = new ArrayList<>();
+        for (URL codeSource : codeSources) {
+            File source = toSourceFile(codeSource);
+            if (source == null && !Util.hasSourceClasses(codeSource)) {
+                return locateClassesByResource(classNames);
+            }
+            tasks.add(() -> {
+                boolean folder = source != null && source.isDirectory();
+                Map<String, ?> classes;
+                try {
+                    classes = source == null ? Util.getSourceClasses(codeSource)
+                            : Util.getIndexEntry(classIndex, source, folder).getClasses();
+                } catch (IOException e) {
+                    return Collections.emptyList();
+                }
+                List<ClassLocation> locations = new ArrayList<>();
+                for (String className : classNames) {
+                    if (classes.containsKey(className)) {
+                        locations.add(new ClassLocation(className, codeSource, folder));
+                    }
+                }
+                return locations;
+            });
+        }
+        Map<String, List<ClassLocation>> locationsByClass = new TreeMap<>();
+        for (List<ClassLocation> locations : Util.invokeAll(tasks)) {
+            for (ClassLocation location : locations) {
+                locationsByClass.computeIfAbsent(location.getClassName(), k -> new ArrayList<>()).add(location);
+            }
+        }
+        List<ClassLocation> list = new ArrayList<>();
+        for (List<ClassLocation> locations : locationsByClass.values()) {
+            list.addAll(locations);
+        }
+        return list;
+    }
+
+    // class path with code source other than local file
+    private List<ClassLocation> locateClassesByResource(Collection<String> classNames) {
+        List<ClassLocation> list = new ArrayList<>();
+        for (String className : new TreeSet<>(classNames)) {
+            for (URL codeSource : findCodeSources(className)) {
+                File source = toSourceFile(codeSource);
+                list.add(new ClassLocation(className, codeSource, source != null && source.isDirectory()));
+            }
+        }
+        return list;
+    }
+
     public URL locateResource(String resourceName) {
         URLClassPath.Resource resource = getURLClassPath().getResource(resourceName);
         if (resource != null) {
@@ -125,34 +570,259 @@ public class ClassPathFinder extends AbstractClassFinder implements ClassFinder
     }
 
     public String[] findDependencies(String className) {
-        Jclass theClass = parseJavaClass(locateClass(className));
-        if (theClass == null) {
+        return findDependencies(className, false);
+    }
+
+    public String[] findNotFoundedDependencies(String className) {
+        return findDependencies(className, true);
+    }
+
+    /*
+     * the class and classes it depends on directly or indirectly, either found ones or missing ones
+     */
+    private String[] findDependencies(String className, boolean missing) {
+        DependencyGraph graph = getDependencyGraph(false);
+        int id = graph.getId(className);
+        if (graph.isMissing(id)) {
             return new String[0];
         }
+        List<String> list = new ArrayList<>();
+        for (int dependencyId : graph.getDependencyClosure(id)) {
+            if (graph.isMissing(dependencyId) == missing) {
+                list.add(graph.getName(dependencyId));
+            }
+        }
+        return list.toArray(new String[list.size()]);
+    }
 
-        Set<String> foundedClass = new HashSet<>();
-        Set<String> notFoundedClass = new HashSet<>();
-        processDependency(className, foundedClass, notFoundedClass);
+    /*
+     * classes in class path depending on the class directly or indirectly
+     */
+    public String[] findDependents(String className) {
+        DependencyGraph graph = getDependencyGraph(true);
+        int id = graph.findId(className);
+        if (id < 0) {
+            return new String[0];
+        }
+        int[] dependentIds = graph.getDependentClosure(id);
+        String[] classNames = new String[dependentIds.length];
+        for (int i = 0; i < dependentIds.length; i++) {
+            classNames[i] = graph.getName(dependentIds[i]);
+        }
+        return classNames;
+    }
 
-        return foundedClass.toArray(new String[foundedClass.size()]);
+    /*
+     * type references of classes matching the pattern, aggregated per referring and referred
+     * code source, in loader order and missing classes last. All code sources are read in one
+     * parallel pass, and references inside one code source are left out.
+     */
+    public List<SourceDependency> findSourceDependencies(String classNamePattern) {
+        Map<URL, List<String>> classesBySource = groupByCodeSource(getClassLocations());
+        Map<String, Integer> ranks = getCodeSourceRanks();
+        URL[] sources = classesBySource.keySet().toArray(new URL[classesBySource.size()]);
+        Arrays.sort(sources, Comparator.comparing(url -> ranks.get(url.toString())));
+        Map<String, Integer> sourceIds = new HashMap<>();
+        for (int id = 0; id < sources.length; id++) {
+            for (String className : classesBySource.get(sources[id])) {
+                sourceIds.put(className, id);
+            }
+        }
+        Util.SelectFilter<String> filter = Util.createNamePatternFilter(classNamePattern);
+        List<Callable<List<SourceDependency>>> tasks = new ArrayList<>();
+        for (int id = 0; id < sources.length; id++) {
+            List<String> classNames = new ArrayList<>();
+            for (String className : classesBySource.get(sources[id])) {
+                if (filter.accept(className)) {
+                    classNames.add(className);
+                }
+            }
+            if (!classNames.isEmpty()) {
+                int sourceId = id;
+                tasks.add(() -> readSourceDependencies(sources, sourceId, classNames, sourceIds));
+            }
+        }
+        List<SourceDependency> dependencies = new ArrayList<>();
+        for (List<SourceDependency> row : Util.invokeAll(tasks)) {
+            dependencies.addAll(row);
+        }
+        return dependencies;
     }
 
-    public String[] findNotFoundedDependencies(String className) {
-        Jclass theClass = parseJavaClass(locateClass(className));
-        if (theClass == null) {
-            return new String[0];
+    /*
+     * one row of code source dependencies, the last column is for missing classes
+     */
+    private List<SourceDependency> readSourceDependencies(URL[] sources, int sourceId, List<String> classNames,
+            Map<String, Integer> sourceIds) {
+        int[] counts = new int[sources.length + 1];
+        Map<Integer, Set<String>> referredNames = new HashMap<>();
+        for (String[][] references : readClassData(sources[sourceId], classNames, referencesData).values()) {
+            for (String typeName : references[ReferenceIndex.TYPE]) {
+                String referredName = toReferredClassName(typeName, sourceIds);
+                if (referredName == null) {
+                    continue;
+                }
+                Integer targetId = sourceIds.get(referredName);
+                int column = targetId == null ? sources.length : targetId;
+                if (column == sourceId) {
+                    continue;
+                }
+                counts[column]++;
+                referredNames.computeIfAbsent(column, k -> new TreeSet<>()).add(referredName);
+            }
+        }
+        List<SourceDependency> row = new ArrayList<>();
+        for (int column = 0; column <= sources.length; column++) {
+            if (counts[column] > 0) {
+                Set<String> names = referredNames.get(column);
+                row.add(new SourceDependency(sources[sourceId], column == sources.length ? null : sources[column],
+                        names.toArray(new String[names.size()]), counts[column]));
+            }
         }
+        return row;
+    }
 
-        Set<String> foundedClass = new HashSet<>();
-        Set<String> notFoundedClass = new HashSet<>();
-        processDependency(className, foundedClass, notFoundedClass);
+    /*
+     * null: primitive type. Field types are kept in their descriptor form, like "I" or "La.B;"
+     */
+    private static String toReferredClassName(String typeName, Map<String, ?> classNames) {
+        if (PRIMITIVE_TYPES.contains(typeName)) {
+            return null;
+        }
+        if (classNames.containsKey(typeName)) {
+            return typeName;
+        }
+        if (typeName.length() == 1 && PRIMITIVE_DESCRIPTORS.indexOf(typeName.charAt(0)) >= 0) {
+            return null;
+        }
+        int start = typeName.lastIndexOf('[') + 1;
+        if (typeName.startsWith("L", start) && typeName.endsWith(";")) {
+            return typeName.substring(start + 1, typeName.length() - 1);
+        }
+        return start == 0 ? typeName : null;
+    }
+
+    /*
+     * code sources in loader order, none of whose classes is reachable from the entry classes by type
+     * references. Modules of runtime image are not reported.
+     */
+    public URL[] findUnusedSources(Collection<String> entryClassNames) {
+        DependencyGraph graph = getDependencyGraph(false);
+        int[] entryIds = new int[entryClassNames.size()];
+        int count = 0;
+        for (String className : entryClassNames) {
+            entryIds[count++] = graph.getId(className);
+        }
+        Set<String> usedSources = new HashSet<>();
+        for (int id : graph.getDependencyClosure(entryIds)) {
+            if (graph.isMissing(id)) {
+                continue;
+            }
+            URLClassPath.Resource resource = getURLClassPath().getResource(Util.resolveName(graph.getName(id)));
+            if (resource != null) {
+                addUsedSource(usedSources, resource.getCodeSourceURL());
+            }
+        }
+        Set<String> sources = new HashSet<>();
+        List<URL> unusedSources = new ArrayList<>();
+        for (URL url : getURLClassPath().getCodeSourceURLs()) {
+            if (sources.add(url.toString()) && !usedSources.contains(url.toString()) && RuntimeImage.of(url) == null) {
+                unusedSources.add(url);
+            }
+        }
+        return unusedSources.toArray(new URL[unusedSources.size()]);
+    }
 
-        return notFoundedClass.toArray(new String[notFoundedClass.size()]);
+    /*
+     * cycles of packages, where classes matching the pattern refer to classes of other packages
+     * in class path. Each cycle is sorted, and cycles are ordered by their first package.
+     */
+    public List<String[]> findPackageCycles(String classNamePattern) {
+        Map<String, List<URL>> classLocations = getClassLocations();
+        Set<String> packageNames = new TreeSet<>();
+        for (String className : classLocations.keySet()) {
+            packageNames.add(Util.getPackageName(className));
+        }
+        Map<String, Integer> packageIds = new HashMap<>();
+        for (String packageName : packageNames) {
+            packageIds.put(packageName, packageIds.size());
+        }
+        Util.SelectFilter<String> filter = Util.createNamePatternFilter(classNamePattern);
+        CycleDetector detector = new CycleDetector(packageIds.size());
+        for (Map<String, String[][]> references : loadAllClassData(referencesData, filter)) {
+            for (Map.Entry<String, String[][]> entry : references.entrySet()) {
+                int packageId = packageIds.get(Util.getPackageName(entry.getKey()));
+                for (String typeName : entry.getValue()[ReferenceIndex.TYPE]) {
+                    String referredName = toReferredClassName(typeName, classLocations);
+                    if (referredName != null && classLocations.containsKey(referredName)) {
+                        detector.addEdge(packageId, packageIds.get(Util.getPackageName(referredName)));
+                    }
+                }
+            }
+        }
+        String[] names = packageNames.toArray(new String[packageNames.size()]);
+        List<String[]> cycles = new ArrayList<>();
+        for (int[] component : detector.findCycles()) {
+            String[] cycle = new String[component.length];
+            for (int i = 0; i < component.length; i++) {
+                cycle[i] = names[component[i]];
+            }
+            cycles.add(cycle);
+        }
+        return cycles;
+    }
+
+    /*
+     * cycles of code sources, where classes matching the pattern refer to classes of other code
+     * sources. Each cycle is in loader order, and cycles are ordered by their first code source.
+     */
+    public List<URL[]> findSourceCycles(String classNamePattern) {
+        Map<String, Integer> ranks = getCodeSourceRanks();
+        URL[] sources = new URL[ranks.size()];
+        CycleDetector detector = new CycleDetector(ranks.size());
+        for (SourceDependency dependency : findSourceDependencies(classNamePattern)) {
+            if (dependency.getTarget() != null) {
+                int sourceId = ranks.get(dependency.getSource().toString());
+                int targetId = ranks.get(dependency.getTarget().toString());
+                sources[sourceId] = dependency.getSource();
+                sources[targetId] = dependency.getTarget();
+                detector.addEdge(sourceId, targetId);
+            }
+        }
+        List<URL[]> cycles = new ArrayList<>();
+        for (int[] component : detector.findCycles()) {
+            URL[] cycle = new URL[component.length];
+            for (int i = 0; i < component.length; i++) {
+                cycle[i] = sources[component[i]];
+            }
+            cycles.add(cycle);
+        }
+        return cycles;
+    }
+
+    /*
+     * class of nested archive is used by its outer jars too, like "jar:file:/a.jar!/BOOT-INF/lib/b.jar"
+     * by "file:/a.jar"
+     */
+    private static void addUsedSource(Set<String> usedSources, URL codeSource) {
+        String source = codeSource.toString();
+        usedSources.add(source);
+        while (source.startsWith("jar:") && source.lastIndexOf("!/") > 0) {
+            source = source.substring(0, source.lastIndexOf("!/"));
+            if (source.indexOf("!/") < 0) {
+                source = source.substring("jar:".length());
+            }
+            usedSources.add(source);
+        }
     }
 
     public boolean cat(String finding, PrintStream output) {
         boolean find = false;
         for (URL url : getURLClassPath().getURLs()) {
+            if (RuntimeImage.of(url) != null) {
+                // module is not a jar stream
+                continue;
+            }
             try (JarCat jarCat = new JarCat(url.openStream())) {
                 find |= jarCat.match(new DefaultNameMatcher(finding, new Scanner(new InputStream() {
 
@@ -171,122 +841,469 @@ public class ClassPathFinder extends AbstractClassFinder implements ClassFinder
     }
 
     public String[] findReferencedBy(String refClassName, String packageName) {
-        Set<String> allClassNames = Util.listAllClassNames(this, Util.createInPackage(packageName, false));
-        Set<String> foundedClass = new HashSet<>();
-
-        for (String className : allClassNames) {
-            Jclass javaClass = parseJavaClass(locateClass(className));
-
-            if (javaClass == null) {
-                continue;
-            }
-            Set<String> deps = getDependenciesFor(javaClass);
-            if (deps.contains(refClassName)) {
-                foundedClass.add(javaClass.getClassName());
-            }
-        }
-        return foundedClass.toArray(new String[foundedClass.size()]);
+        return getReferenceIndex().findReferencedBy(ReferenceIndex.TYPE, refClassName,
+                packageName);
     }
 
     public String[] findReferencedByMethod(String fullMethodName, String packageName) {
-        Set<String> allClassNames = Util.listAllClassNames(this, Util.createInPackage(packageName, false));
-        Set<String> foundedClass = new HashSet<>();
         if (fullMethodName.lastIndexOf('.') < 0) {
             throw new IllegalArgumentException("not full method name: " + fullMethodName);
         }
+        return getReferenceIndex().findReferencedBy(ReferenceIndex.METHOD, fullMethodName,
+                packageName);
+    }
 
-        for (String className : allClassNames) {
-            Jclass javaClass = parseJavaClass(locateClass(className));
+    private URLClassPath getURLClassPath() {
+        return urlClassPath;
+    }
 
-            if (javaClass == null) {
-                continue;
+    private static String[] toSuperTypes(Jclass javaClass) {
+        String[] interfaceNames = javaClass.getInterfaceNames();
+        String[] superTypes = new String[interfaceNames.length + 1];
+        superTypes[0] = javaClass.getSuperClassName();
+        System.arraycopy(interfaceNames, 0, superTypes, 1, interfaceNames.length);
+        return superTypes;
+    }
+
+    private synchronized TypeHierarchy getTypeHierarchy(boolean allClasses) {
+        if (typeHierarchy == null) {
+            typeHierarchy = new TypeHierarchy(this::readSuperTypes);
+            typeHierarchyCompleted = false;
+        }
+        if (allClasses && !typeHierarchyCompleted) {
+            loadAllSuperTypes(typeHierarchy);
+            typeHierarchyCompleted = true;
+        }
+        return typeHierarchy;
+    }
+
+    private synchronized DependencyGraph getDependencyGraph(boolean allClasses) {
+        if (dependencyGraph == null) {
+            dependencyGraph = new DependencyGraph(this::readDependencies);
+            dependencyGraphCompleted = false;
+        }
+        if (allClasses && !dependencyGraphCompleted) {
+            for (Map<String, String[][]> references : loadAllClassData(referencesData)) {
+                for (Map.Entry<String, String[][]> entry : references.entrySet()) {
+                    dependencyGraph.setDependencies(entry.getKey(),
+                            toDependencyNames(entry.getValue()[ReferenceIndex.TYPE]));
+                }
             }
-            if (parserProvider.getDependencyMethods(javaClass).contains(fullMethodName)) {
-                foundedClass.add(javaClass.getClassName());
+            dependencyGraphCompleted = true;
+        }
+        return dependencyGraph;
+    }
+
+    private interface JclassHandler {
+        void handle(String className, Jclass javaClass);
+    }
+
+    /*
+     * all class names grouped by their effective code source, which is the first one in loader order
+     */
+    private Map<URL, List<String>> groupByCodeSource(Map<String, List<URL>> allClassNames) {
+        Map<String, Integer> ranks = getCodeSourceRanks();
+        Map<URL, List<String>> classesBySource = new LinkedHashMap<>();
+        for (Map.Entry<String, List<URL>> entry : allClassNames.entrySet()) {
+            URL source = null;
+            int sourceRank = Integer.MAX_VALUE;
+            for (URL url : entry.getValue()) {
+                Integer rank = ranks.get(url.toString());
+                if (rank != null && rank < sourceRank) {
+                    source = url;
+                    sourceRank = rank;
+                }
+            }
+            if (source != null) {
+                classesBySource.computeIfAbsent(source, k -> new ArrayList<>()).add(entry.getKey());
             }
         }
-        return foundedClass.toArray(new String[foundedClass.size()]);
+        return classesBySource;
     }
 
-    private URLClassPath getURLClassPath() {
-        return urlClassPath;
+    // code source -> position in loader order
+    private Map<String, Integer> getCodeSourceRanks() {
+        Map<String, Integer> ranks = new HashMap<>();
+        for (URL url : getURLClassPath().getCodeSourceURLs()) {
+            ranks.putIfAbsent(url.toString(), ranks.size());
+        }
+        return ranks;
     }
 
-    private void processDependency(String className, Set<String> foundedClass, Set<String> notFoundedClass) {
-        Stack<String> processedClass = new Stack<>();
-        processedClass.add(className);
+    /*
+     * null: not local file
+     */
+    private static File toSourceFile(URL codeSource) {
+        try {
+            return Util.toFile(codeSource);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return null;
+        }
+    }
 
-        while (!processedClass.isEmpty()) {
-            String name = processedClass.pop();
-            if (name == null || foundedClass.contains(name) || notFoundedClass.contains(name)) {
-                // founded or not founded
-                continue;
+    /*
+     * parse classes from one code source, opening jar file only once
+     */
+    private static void parseClasses(File source, List<String> classNames, boolean headerOnly, JclassHandler handler) {
+        if (classNames.isEmpty()) {
+            return;
+        }
+        if (source.isDirectory()) {
+            for (String className : classNames) {
+                try (InputStream stream = new FileInputStream(new File(source, Util.resolveName(className)))) {
+                    parseClass(className, stream, headerOnly, handler);
+                } catch (IOException ignored) {
+                }
             }
-            Jclass javaClass = parseJavaClass(locateClass(name));
-            if (javaClass == null) {
-                notFoundedClass.add(name);
-                continue;
+        } else {
+            JarFile jarFile;
+            try {
+                jarFile = Util.getJarFilePool().acquire(source);
+            } catch (IOException e) {
+                return;
+            }
+            try {
+                for (String className : classNames) {
+                    JarEntry entry = Util.getJarFilePool().getEntry(jarFile, Util.resolveName(className));
+                    if (entry != null) {
+                        try (InputStream stream = jarFile.getInputStream(entry)) {
+                            parseClass(className, stream, headerOnly, handler);
+                        }
+                    }
+                }
+            } catch (IOException ignored) {
+            } finally {
+                Util.getJarFilePool().release(jarFile);
             }
-            processedClass.addAll(getDependenciesFor(javaClass));
-            foundedClass.add(javaClass.getClassName());
         }
     }
 
-    private Set<String> getDependenciesFor(Jclass javaClass) {
-        if (javaClass == null) {
-            throw new NullPointerException("java class is null");
+    private static void parseClasses(URL codeSource, List<String> classNames, boolean headerOnly, JclassHandler handler) {
+        for (String className : classNames) {
+            try (InputStream stream = Util.openSourceStream(codeSource, Util.resolveName(className))) {
+                parseClass(className, stream, headerOnly, handler);
+            } catch (IOException ignored) {
+            }
         }
-        return parserProvider.getDependencies(javaClass);
     }
 
-    private boolean isAssignableFrom(String className, Set<String> foundedClass, Set<String> processedClass) {
-        if (processedClass.contains(className)) {
-            // has processed
-            return foundedClass.contains(className);
+    private static void parseClass(String className, InputStream stream, boolean headerOnly, JclassHandler handler) {
+        Jclass javaClass;
+        try {
+            javaClass = headerOnly ? parserProvider.parseHeader(stream, className)
+                    : parserProvider.parse(stream, className);
+        } catch (ClassFormatError | Exception e) {
+            return;
         }
-        processedClass.add(className);
-        Jclass javaClass = parseJavaClass(locateClass(className));
-        if (javaClass == null) {
-            // not in the classpath
+        handler.handle(className, javaClass);
+    }
+
+    /*
+     * data parsed from class, and kept in class index
+     */
+    private interface ClassData<T> {
+        /*
+         * null: not in class index
+         */
+        T get(File source, String className);
+
+        void put(File source, String className, T data);
+
+        T parse(Jclass javaClass);
+
+        /*
+         * class header is enough for parse
+         */
+        default boolean isHeaderOnly() {
             return false;
         }
-        if (isAssignableFrom(javaClass.getSuperClassName(), foundedClass, processedClass)) {
-            foundedClass.add(className);
+    }
+
+    private final ClassData<String[]> superTypesData = new ClassData<String[]>() {
+        public String[] get(File source, String className) {
+            return classIndex == null ? null : classIndex.getSuperTypes(source, className);
+        }
+
+        public void put(File source, String className, String[] data) {
+            if (classIndex != null) {
+                classIndex.putSuperTypes(source, className, data);
+            }
+        }
+
+        public String[] parse(Jclass javaClass) {
+            return toSuperTypes(javaClass);
+        }
+
+        @Override
+        public boolean isHeaderOnly() {
             return true;
         }
-        for (String infName : javaClass.getInterfaceNames()) {
-            if (isAssignableFrom(infName, foundedClass, processedClass)) {
-                foundedClass.add(className);
-                return true;
+    };
+
+    private final ClassData<String[][]> referencesData = new ClassData<String[][]>() {
+        public String[][] get(File source, String className) {
+            return classIndex == null ? null : classIndex.getReferences(source, className);
+        }
+
+        public void put(File source, String className, String[][] data) {
+            if (classIndex != null) {
+                classIndex.putReferences(source, className, data);
+            }
+        }
+
+        public String[][] parse(Jclass javaClass) {
+            return toReferences(javaClass);
+        }
+    };
+
+    private final ClassData<String[]> stringsData = new ClassData<String[]>() {
+        public String[] get(File source, String className) {
+            return classIndex == null ? null : classIndex.getStrings(source, className);
+        }
+
+        public void put(File source, String className, String[] data) {
+            if (classIndex != null) {
+                classIndex.putStrings(source, className, data);
+            }
+        }
+
+        public String[] parse(Jclass javaClass) {
+            // all strings contain empty text
+            Set<String> strings = parserProvider.getStrings(javaClass, "");
+            return strings.toArray(new String[strings.size()]);
+        }
+    };
+
+    /*
+     * read data of all classes in one pass, each class from its effective code source
+     */
+    private <T> List<Map<String, T>> loadAllClassData(ClassData<T> classData) {
+        return loadAllClassData(classData, Util.acceptAll(String.class));
+    }
+
+    /*
+     * same as above, for classes accepted by filter only
+     */
+    private <T> List<Map<String, T>> loadAllClassData(ClassData<T> classData, Util.SelectFilter<String> filter) {
+        Map<URL, List<String>> classesBySource = groupByCodeSource(getClassLocations());
+        List<Callable<Map<String, T>>> tasks = new ArrayList<>();
+        for (Map.Entry<URL, List<String>> entry : classesBySource.entrySet()) {
+            List<String> classNames = new ArrayList<>();
+            for (String className : entry.getValue()) {
+                if (filter.accept(className)) {
+                    classNames.add(className);
+                }
+            }
+            if (!classNames.isEmpty()) {
+                tasks.add(() -> readClassData(entry.getKey(), classNames, classData));
+            }
+        }
+        return Util.invokeAll(tasks);
+    }
+
+    private <T> Map<String, T> readClassData(URL codeSource, List<String> classNames, ClassData<T> classData) {
+        Map<String, T> result = new HashMap<>();
+        File source = toSourceFile(codeSource);
+        List<String> parsingClassNames = new ArrayList<>();
+        for (String className : classNames) {
+            T data = source == null ? null : classData.get(source, className);
+            if (data != null) {
+                result.put(className, data);
+            } else {
+                parsingClassNames.add(className);
+            }
+        }
+        JclassHandler handler = (className, javaClass) -> {
+            T data = classData.parse(javaClass);
+            if (source != null) {
+                classData.put(source, className, data);
+            }
+            result.put(className, data);
+        };
+        if (source != null) {
+            parseClasses(source, parsingClassNames, classData.isHeaderOnly(), handler);
+        } else if (Util.hasSourceClasses(codeSource)) {
+            parseClasses(codeSource, parsingClassNames, classData.isHeaderOnly(), handler);
+        } else {
+            for (String className : parsingClassNames) {
+                URL url = locateClass(className);
+                Jclass javaClass = classData.isHeaderOnly() ? parseClassHeader(url) : parseJavaClass(url);
+                if (javaClass != null) {
+                    handler.handle(className, javaClass);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void loadAllSuperTypes(TypeHierarchy hierarchy) {
+        for (Map<String, String[]> superTypes : loadAllClassData(superTypesData)) {
+            for (Map.Entry<String, String[]> entry : superTypes.entrySet()) {
+                hierarchy.setSuperTypes(entry.getKey(), entry.getValue());
+            }
+        }
+        hierarchy.complete();
+    }
+
+    synchronized Map<String, List<URL>> getClassLocations() {
+        if (classLocations == null) {
+            classLocations = Util.locateAllClassNames(this, Util.acceptAll(String.class));
+        }
+        return classLocations;
+    }
+
+    private synchronized PackageIndex getPackageIndex() {
+        if (packageIndex == null) {
+            packageIndex = new PackageIndex(getClassLocations().keySet());
+        }
+        return packageIndex;
+    }
+
+    private synchronized ReferenceIndex getReferenceIndex() {
+        if (referenceIndex == null) {
+            ReferenceIndex index = new ReferenceIndex(getPackageIndex());
+            for (Map<String, String[][]> references : loadAllClassData(referencesData)) {
+                for (Map.Entry<String, String[][]> entry : references.entrySet()) {
+                    index.addReferences(entry.getKey(), entry.getValue());
+                }
+            }
+            referenceIndex = index;
+        }
+        return referenceIndex;
+    }
+
+    private synchronized StringIndex getStringIndex() {
+        if (stringIndex == null) {
+            StringIndex index = new StringIndex(getPackageIndex());
+            for (Map<String, String[]> strings : loadAllClassData(stringsData)) {
+                for (Map.Entry<String, String[]> entry : strings.entrySet()) {
+                    index.addStrings(entry.getKey(), entry.getValue());
+                }
+            }
+            stringIndex = index;
+        }
+        return stringIndex;
+    }
+
+    private static String[][] toReferences(Jclass javaClass) {
+        Set<String> types = parserProvider.getDependencies(javaClass);
+        Set<String> methods = parserProvider.getDependencyMethods(javaClass);
+        Set<String> fields = parserProvider.getDependencyFields(javaClass);
+        return new String[][] { types.toArray(new String[types.size()]),
+                methods.toArray(new String[methods.size()]), fields.toArray(new String[fields.size()]) };
+    }
+
+    /*
+     * null: not in the classpath, otherwise referred type names
+     */
+    private String[] readDependencies(String className) {
+        URLClassPath.Resource resource = getURLClassPath().getResource(Util.resolveName(className));
+        if (resource == null) {
+            return null;
+        }
+        File source = toSourceFile(resource.getCodeSourceURL());
+        String[][] references = source == null || classIndex == null ? null
+                : classIndex.getReferences(source, className);
+        if (references == null) {
+            Jclass javaClass = parseJavaClass(resource.getURL());
+            if (javaClass == null) {
+                return null;
+            }
+            references = toReferences(javaClass);
+            if (source != null && classIndex != null) {
+                classIndex.putReferences(source, className, references);
             }
         }
-        return false;
+        return toDependencyNames(references[ReferenceIndex.TYPE]);
+    }
+
+    /*
+     * referred class names of type names, field types are kept like "Lb.B;" or "I" in references
+     */
+    private static String[] toDependencyNames(String[] typeNames) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String typeName : typeNames) {
+            String referredName = toReferredClassName(typeName, Collections.emptyMap());
+            if (referredName != null) {
+                names.add(referredName);
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /*
+     * null: not in the classpath, otherwise super class name followed by interface names
+     */
+    private String[] readSuperTypes(String className) {
+        URLClassPath.Resource resource = getURLClassPath().getResource(Util.resolveName(className));
+        if (resource == null) {
+            return null;
+        }
+        File source;
+        try {
+            source = Util.toFile(resource.getCodeSourceURL());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            source = null;
+        }
+        String[] superTypes = source == null || classIndex == null ? null
+                : classIndex.getSuperTypes(source, className);
+        if (superTypes == null) {
+            Jclass javaClass = parseClassHeader(resource.getURL());
+            if (javaClass == null) {
+                return null;
+            }
+            superTypes = toSuperTypes(javaClass);
+            if (source != null && classIndex != null) {
+                classIndex.putSuperTypes(source, className, superTypes);
+            }
+        }
+        return superTypes;
     }
 
     public String[] findAssignableFrom(String topPackageName, String parentClassName) {
-        Jclass theClass = parseJavaClass(locateClass(parentClassName));
-        if (theClass == null) {
+        TypeHierarchy hierarchy = getTypeHierarchy(true);
+        int parentId = hierarchy.findId(parentClassName);
+        if (parentId < 0 || hierarchy.getSuperTypes(parentId) == null) {
             return new String[0];
         }
 
-        Set<String> allClassNames = Util.listAllClassNames(this,
-                topPackageName == null ? Util.acceptAll(String.class) : Util.createStartsWith(topPackageName));
-
         Set<String> foundedClass = new HashSet<>();
-        foundedClass.add(theClass.getClassName());
-        Set<String> processedClass = new HashSet<>();
-        processedClass.add(parentClassName);
-
-        for (String className : allClassNames) {
-            isAssignableFrom(className, foundedClass, processedClass);
+        foundedClass.add(parentClassName);
+        for (int id : hierarchy.getAllSubTypes(parentId)) {
+            String className = hierarchy.getName(id);
+            if (topPackageName == null || className.startsWith(topPackageName)) {
+                foundedClass.add(className);
+            }
         }
         return foundedClass.toArray(new String[foundedClass.size()]);
     }
 
-    public String[] findPackageClasses(String packageName, boolean directPackage) {
-        Set<String> allClassNames = Util.listAllClassNames(this, Util.createInPackage(packageName, directPackage));
+    @Override
+    public String[] lookupClasses(List<String> classNamePatterns) {
+        WildcardMatcher matcher = new WildcardMatcher(classNamePatterns);
+        PackageIndex index = getPackageIndex();
+        List<int[]> ranges = new ArrayList<>();
+        if (matcher.getPrefixes() == null) {
+            ranges.add(new int[] { 0, index.size() });
+        } else {
+            for (String prefix : matcher.getPrefixes()) {
+                ranges.add(index.getPrefixRange(prefix));
+            }
+        }
+        Set<String> found = new TreeSet<>();
+        for (int[] range : ranges) {
+            for (int id = range[0]; id < range[1]; id++) {
+                String className = index.getName(id);
+                if (matcher.accept(className)) {
+                    found.add(className);
+                }
+            }
+        }
+        return found.toArray(new String[found.size()]);
+    }
 
-        return allClassNames.toArray(new String[allClassNames.size()]);
+    public String[] findPackageClasses(String packageName, boolean directPackage) {
+        return getPackageIndex().findPackageClasses(packageName, directPackage);
     }
 
     public String[] findSuperTypes(String topPackageName, String subTypeClassName) {
@@ -294,69 +1311,45 @@ public class ClassPathFinder extends AbstractClassFinder implements ClassFinder
     }
 
     public String[] findSuperTypes(String subTypeClassName) {
-        Jclass theClass = parseJavaClass(locateClass(subTypeClassName));
-        if (theClass == null) {
+        TypeHierarchy hierarchy = getTypeHierarchy(false);
+        int subTypeId = hierarchy.getId(subTypeClassName);
+        if (hierarchy.getSuperTypes(subTypeId) == null) {
             return new String[0];
         }
 
         List<String> list = new ArrayList<>();
-        Stack<Jclass> stack = new Stack<>();
-        stack.push(theClass);
+        Stack<Integer> stack = new Stack<>();
+        stack.push(subTypeId);
         while (!stack.isEmpty()) {
-            Jclass javaClass = stack.pop();
-            if (javaClass != null && !list.contains(javaClass.getClassName())) {
-                list.add(javaClass.getClassName());
+            int id = stack.pop();
+            String className = hierarchy.getName(id);
+            int[] superTypes = list.contains(className) ? null : hierarchy.getSuperTypes(id);
+            if (superTypes != null) {
+                list.add(className);
             } else {
                 continue;
             }
-            for (String inf : javaClass.getInterfaceNames()) {
-                stack.push(parseJavaClass(locateClass(inf)));
+            // super class first, then interfaces in reverse declaration order
+            for (int i = 1; i < superTypes.length; i++) {
+                stack.push(superTypes[i]);
             }
-            if (javaClass.getSuperClassName() != null) {
-                stack.push(parseJavaClass(locateClass(javaClass.getSuperClassName())));
+            if (superTypes.length > 0) {
+                stack.push(superTypes[0]);
             }
         }
-        list.remove(theClass.getClassName());
+        list.remove(subTypeClassName);
         return list.toArray(new String[list.size()]);
     }
-
     public Map<String, Set<String>> findConstants(String packageName, String text) {
-        Set<String> allClassNames = Util.listAllClassNames(this, Util.createInPackage(packageName, false));
-
-        Map<String, Set<String>> ret = new TreeMap<>();
-        for (String className : allClassNames) {
-            Jclass javaClass = parseJavaClass(locateClass(className));
-
-            if (javaClass == null) {
-                continue;
-            }
-            Set<String> strings = parserProvider.getStrings(javaClass, text);
-            if (!strings.isEmpty()) {
-                ret.put(className, strings);
-            }
-
-        }
-        return ret;
+        return getStringIndex().findStrings(text, packageName);
     }
 
     public String[] findReferencedByField(String fullFieldName, String packageName) {
-        Set<String> allClassNames = Util.listAllClassNames(this, Util.createInPackage(packageName, false));
-        Set<String> foundedClass = new HashSet<>();
         if (fullFieldName.lastIndexOf('.') < 0) {
             throw new IllegalArgumentException("not full field name: " + fullFieldName);
         }
-
-        for (String className : allClassNames) {
-            Jclass javaClass = parseJavaClass(locateClass(className));
-
-            if (javaClass == null) {
-                continue;
-            }
-            if (parserProvider.getDependencyFields(javaClass).contains(fullFieldName)) {
-                foundedClass.add(javaClass.getClassName());
-            }
-        }
-        return foundedClass.toArray(new String[foundedClass.size()]);
+        return getReferenceIndex().findReferencedBy(ReferenceIndex.FIELD, fullFieldName,
+                packageName);
     }
 
 }
@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -24,6 +23,8 @@ public class ClassPathFinderMain {
 
 	private static boolean verbose = false;
 
+	private static File indexFile = null;
+
 	/**
 	 * @param args
 	 */
@@ -67,6 +68,27 @@ public class ClassPathFinderMain {
 				action = 13;// find conflict classes by source
 			} else if (arg.equals("-fref")) {
 				action = 14;// find referring field
+			} else if (arg.equals("-dependents")) {
+				action = 19;// find classes depending on class
+			} else if (arg.equals("-jardepend")) {
+				action = 15;// find dependence between sources
+			} else if (arg.equals("-unused")) {
+				action = 16;// find sources not used by entry classes
+			} else if (arg.equals("-packagecycle")) {
+				action = 17;// find package cycles
+			} else if (arg.equals("-jarcycle")) {
+				action = 18;// find cycles between sources
+			} else if (arg.equals("-index")) {
+				indexFile = new File(mandatory(args, i, "-index"));
+			} else if (arg.equals("-release")) {
+				String release = mandatory(args, i, "-release");
+				try {
+					ReleaseOverlay.setTargetRelease(Integer.parseInt(release));
+				} catch (IllegalArgumentException e) {
+					System.err.println("Invalid release: " + release);
+					usage();
+					System.exit(1);
+				}
 			} else if (arg.equals("-verbose")) {
 				verbose = true;
 			} else if (arg.equals("-current")) {
@@ -148,6 +170,18 @@ public class ClassPathFinderMain {
 		return list.toArray(new String[list.size()]);
 	}
 
+	private static String toAbsolutePath(ClassPathFinder.ClassLocation location) {
+		if ("jrt".equals(location.getCodeSource().getProtocol())) {
+			// class of runtime image, as resource URL "jrt:/java.base/java/lang/String.class"
+			return location.getCodeSource() + location.getEntryName();
+		}
+		if (!location.isFolder()) {
+			return Util.toAbsolutePath(location.getCodeSource(), null);
+		}
+		File source = new File(Util.toFile(location.getCodeSource()), location.getEntryName());
+		return source.getAbsolutePath();
+	}
+
 	private static ClassPathBuilder buildCp(String[] classPaths, String javaHome) {
 		ClassPathBuilder sysbuilder = null;
 		if (javaHome != null) {
@@ -169,14 +203,10 @@ public class ClassPathFinderMain {
 	private static void findByBuilder(ClassPathBuilder builder,
 			List<String> classNamePatterns, int action) {
 		ClassPathFinder finder = new ClassPathFinder(builder);
-		ClassFinderAgent agent = new ClassFinderAgent(finder);
 		if (verbose) {
 			System.err.println("***** START CLASSPATH *****");
 			for (URL url : builder.getURLs()) {
-				try {
-					System.err.println(new File(url.toURI()).getAbsolutePath());
-				} catch (URISyntaxException e) {
-				}
+				System.err.println(Util.toAbsolutePath(url, null));
 			}
 			System.err.println("***** END CLASSPATH *****");
 			System.err.println();
@@ -186,40 +216,67 @@ public class ClassPathFinderMain {
 			}
 			System.err.println("***** END ARGUMENTS *****");
 		}
+		if (indexFile != null) {
+			finder.enableIndex();
+		}
+		if (indexFile != null && indexFile.exists()) {
+			try {
+				finder.loadIndex(indexFile);
+				List<ClassPathFinder.IndexChange> changes = finder
+						.refreshIndex();
+				if (verbose) {
+					for (ClassPathFinder.IndexChange change : changes) {
+						System.err.println("-- Index " + change.getType()
+								+ " [" + Util.toAbsolutePath(change.getSource(), null)
+								+ "] (" + change.getElapsedNanos() / 1000000
+								+ " ms)");
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("-- Ignore class index file ["
+						+ indexFile.getAbsolutePath() + "]: " + e);
+			}
+		}
 		if (action == 0 || action == 1) {
 			Set<String> classNames = new TreeSet<>();
+			List<String> patterns = new ArrayList<>();
 			for (String name : classNamePatterns) {
 				if (name.indexOf('.') < 0 || name.indexOf('*') >= 0
 						|| name.indexOf('?') >= 0) {
-					classNames.addAll(Arrays.asList(finder.lookupClass(name)));
+					patterns.add(name);
 				} else {
 					classNames.add(name);
 				}
 			}
+			if (!patterns.isEmpty()) {
+				// one pass for all patterns
+				classNames.addAll(Arrays.asList(finder.lookupClasses(patterns)));
+			}
 			boolean found = false;
+			// all locations in one pass, ordered by class name
+			List<ClassPathFinder.ClassLocation> locations = finder
+					.locateClasses(classNames);
 			if (action == 0) {
-				for (String className : classNames) {
-					int i = 0;
-					for (String s : agent.findClasses(className)) {
-						if (i++ == 0) {
-							System.out.println("[" + className + "]");
-						}
-						System.out.println(s);
-						found = true;
+				String lastClassName = null;
+				for (ClassPathFinder.ClassLocation location : locations) {
+					if (!location.getClassName().equals(lastClassName)) {
+						lastClassName = location.getClassName();
+						System.out.println("[" + lastClassName + "]");
 					}
+					System.out.println(toAbsolutePath(location));
+					found = true;
 				}
 			} else {
 				Map<String, List<String>> map = new TreeMap<>();
-				for (String className : classNames) {
-					for (String s : agent.findClasses(className)) {
-						List<String> list = map.get(s);
-						if (list == null) {
-							list = new ArrayList<>();
-							map.put(s, list);
-						}
-						list.add(className);
-						found = true;
+				for (ClassPathFinder.ClassLocation location : locations) {
+					String s = toAbsolutePath(location);
+					List<String> list = map.get(s);
+					if (list == null) {
+						list = new ArrayList<>();
+						map.put(s, list);
 					}
+					list.add(location.getClassName());
+					found = true;
 				}
 				for (String s : map.keySet()) {
 					System.out.println("-- From [" + s + "]");
@@ -231,8 +288,38 @@ public class ClassPathFinderMain {
 			if (!found) {
 				System.err.println("The class/pattern " + classNamePatterns
 						+ " cannot be found from class paths.");
+				saveIndex(finder);
 				System.exit(1);
 			}
+		} else if (action == 16) {
+			List<String> patterns = new ArrayList<>();
+			Set<String> classNames = new TreeSet<>();
+			for (String name : classNamePatterns) {
+				if (name.indexOf('*') >= 0 || name.indexOf('?') >= 0) {
+					patterns.add(name);
+				} else {
+					classNames.add(name);
+				}
+			}
+			if (!patterns.isEmpty()) {
+				classNames.addAll(Arrays.asList(finder.lookupClasses(patterns)));
+			}
+			if (classNames.isEmpty()) {
+				System.err.println("The class/pattern " + classNamePatterns
+						+ " cannot be found from class paths.");
+				saveIndex(finder);
+				System.exit(1);
+			}
+			URL[] sources = finder.findUnusedSources(classNames);
+			if (sources.length > 0) {
+				System.out.println("-- Unused source for " + classNamePatterns);
+				for (URL source : sources) {
+					System.out.println(Util.toAbsolutePath(source, null));
+				}
+			} else {
+				System.err.println("-- No unused source found for "
+						+ classNamePatterns);
+			}
 		} else {
 			for (String name : classNamePatterns) {
 				if (action == 2) {
@@ -294,6 +381,19 @@ public class ClassPathFinderMain {
 					if (map.isEmpty()) {
 						System.err.println("-- No duplicated class found");
 					}
+				} else if (action == 19) {
+					String[] classNames = finder.findDependents(name);
+					Arrays.sort(classNames);
+					if (classNames.length > 0) {
+						System.out.println("-- Dependent class for [" + name
+								+ "]");
+						for (String className : classNames) {
+							System.out.println(className);
+						}
+					} else {
+						System.err.println("-- No dependent class found for ["
+								+ name + "]");
+					}
 				} else if (action == 6) {
 					String[] classNames = finder.findReferencedBy(name, null);
 					Arrays.sort(classNames);
@@ -467,9 +567,97 @@ public class ClassPathFinderMain {
 						System.err.println("-- No reference class found for Field ["
 								+ name + "]");
 					}
+				} else if (action == 15) {
+					List<ClassPathFinder.SourceDependency> dependencies = finder
+							.findSourceDependencies(name);
+					URL lastSource = null;
+					for (ClassPathFinder.SourceDependency dependency : dependencies) {
+						if (dependency.getSource() != lastSource) {
+							lastSource = dependency.getSource();
+							System.out.println("["
+									+ Util.toAbsolutePath(lastSource, null) + "]");
+						}
+						if (dependency.getTarget() != null) {
+							System.out.println(Util.toAbsolutePath(
+									dependency.getTarget(), null)
+									+ " (" + dependency.getReferenceCount() + ")");
+						} else {
+							int runtimeCount = 0;
+							for (String className : dependency.getClassNames()) {
+								if (!verbose && isRuntimeClass(className)) {
+									runtimeCount++;
+								} else {
+									System.out.println("-- Not found " + className);
+								}
+							}
+							if (runtimeCount > 0) {
+								System.out.println("-- Not found " + runtimeCount
+										+ " classes of Java runtime");
+							}
+						}
+					}
+					if (dependencies.isEmpty()) {
+						System.err.println("-- No source dependence found for ["
+								+ name + "]");
+					}
+				} else if (action == 17) {
+					List<String[]> cycles = finder.findPackageCycles(name);
+					for (String[] cycle : cycles) {
+						System.out.println("-- Package cycle (" + cycle.length
+								+ ")");
+						for (String packageName : cycle) {
+							System.out.println(packageName);
+						}
+					}
+					if (cycles.isEmpty()) {
+						System.err.println("-- No package cycle found for ["
+								+ name + "]");
+					}
+				} else if (action == 18) {
+					List<URL[]> cycles = finder.findSourceCycles(name);
+					for (URL[] cycle : cycles) {
+						System.out.println("-- Source cycle (" + cycle.length
+								+ ")");
+						for (URL source : cycle) {
+							System.out.println(Util.toAbsolutePath(source, null));
+						}
+					}
+					if (cycles.isEmpty()) {
+						System.err.println("-- No source cycle found for ["
+								+ name + "]");
+					}
 				} 
 			}
 		}
+		saveIndex(finder);
+		if (verbose) {
+			System.err.println("-- Parsed class cache: hit "
+					+ finder.getClassCacheHitCount() + ", miss "
+					+ finder.getClassCacheMissCount() + ", eviction "
+					+ finder.getClassCacheEvictionCount());
+			System.err.println("-- Jar files: open "
+					+ finder.getJarFileOpenCount() + ", eviction "
+					+ finder.getJarFileEvictionCount());
+		}
+	}
+
+	/*
+	 * class of running Java runtime, by bootstrap or platform class loader
+	 */
+	private static boolean isRuntimeClass(String className) {
+		ClassLoader loader = ClassLoader.getSystemClassLoader().getParent();
+		return loader != null && loader.getResource(Util.resolveName(className)) != null;
+	}
+
+	private static void saveIndex(ClassPathFinder finder) {
+		if (indexFile != null) {
+			try {
+				finder.saveIndex(indexFile);
+			} catch (IOException e) {
+				System.err.println("-- Cannot save class index file ["
+						+ indexFile.getAbsolutePath() + "]: " + e);
+			}
+		}
 	}
 
 	private static void usage() {
@@ -510,10 +698,24 @@ public class ClassPathFinderMain {
 		out.println("\t\tList all incoming referring class or interface names for the full field name");
 		out.println("  -depend ");
 		out.println("\t\tList all outgoing depending class or interface names");
+		out.println("  -dependents ");
+		out.println("\t\tList all class or interface names depending on the class directly or indirectly");
+		out.println("  -jardepend ");
+		out.println("\t\tList jar files or class folders referred by each one, with number of class references, for classes matching NAME. Classes not found of Java runtime are only counted unless -verbose");
+		out.println("  -unused ");
+		out.println("\t\tList jar files or class folders not reachable from the entry classes in NAME, like main classes and service providers");
+		out.println("  -packagecycle ");
+		out.println("\t\tList cycles of packages referring each other, for classes matching NAME");
+		out.println("  -jarcycle ");
+		out.println("\t\tList cycles of jar files or class folders referring each other, for classes matching NAME");
 		out.println("  -strings ");
 		out.println("\t\tList class or interface contains the string text");
 		out.println("  -cat ");
 		out.println("\t\tPrint text file with name matching the string text");
+		out.println("  -index <INDEX FILE>");
+		out.println("\t\tLoad class names from the index file, and save it back after search. Unchanged jar files are not scanned again");
+		out.println("  -release <RELEASE>");
+		out.println("\t\tRead classes of multi-release jar file for the Java release, default is the running one");
 		out.println("  -verbose ");
 		out.println("\t\tList class path will be searched");
 		out.println("  -current ");
@@ -0,0 +1,119 @@
+package com.github.fengzh.classfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Cycles of a directed graph over integer ids, as strongly connected
+ * components of more than one node. Edges are packed as longs, then sorted
+ * into compressed sparse row form, and components are found by Tarjan
+ * algorithm with explicit stacks, so deep graphs do not overflow thread stack.
+ */
+final class CycleDetector {
+
+	private final int nodeCount;
+
+	// from id in high word, to id in low word
+	private long[] edges = new long[1024];
+
+	private int edgeCount;
+
+	CycleDetector(int nodeCount) {
+		this.nodeCount = nodeCount;
+	}
+
+	void addEdge(int from, int to) {
+		if (from == to) {
+			return;
+		}
+		if (edgeCount == edges.length) {
+			edges = Arrays.copyOf(edges, edgeCount * 2);
+		}
+		edges[edgeCount++] = (long) from << 32 | to;
+	}
+
+	/*
+	 * components with sorted ids, ordered by their smallest id
+	 */
+	List<int[]> findCycles() {
+		Arrays.sort(edges, 0, edgeCount);
+		int[] offsets = new int[nodeCount + 1];
+		int[] targets = new int[edgeCount];
+		int targetCount = 0;
+		for (int i = 0; i < edgeCount; i++) {
+			if (i > 0 && edges[i] == edges[i - 1]) {
+				continue;
+			}
+			offsets[(int) (edges[i] >>> 32) + 1]++;
+			targets[targetCount++] = (int) edges[i];
+		}
+		for (int id = 0; id < nodeCount; id++) {
+			offsets[id + 1] += offsets[id];
+		}
+		List<int[]> components = findComponents(offsets, targets);
+		for (int[] component : components) {
+			Arrays.sort(component);
+		}
+		components.sort((a, b) -> Integer.compare(a[0], b[0]));
+		return components;
+	}
+
+	private List<int[]> findComponents(int[] offsets, int[] targets) {
+		int[] index = new int[nodeCount];
+		Arrays.fill(index, -1);
+		int[] lowLink = new int[nodeCount];
+		boolean[] onStack = new boolean[nodeCount];
+		int[] stack = new int[nodeCount];
+		int stackSize = 0;
+		// depth first path, with next edge to visit of each node
+		int[] path = new int[nodeCount];
+		int[] nextEdge = new int[nodeCount];
+		int counter = 0;
+		List<int[]> components = new ArrayList<>();
+		for (int root = 0; root < nodeCount; root++) {
+			if (index[root] >= 0) {
+				continue;
+			}
+			int depth = 0;
+			path[depth++] = root;
+			index[root] = lowLink[root] = counter++;
+			nextEdge[root] = offsets[root];
+			stack[stackSize++] = root;
+			onStack[root] = true;
+			while (depth > 0) {
+				int node = path[depth - 1];
+				if (nextEdge[node] < offsets[node + 1]) {
+					int target = targets[nextEdge[node]++];
+					if (index[target] < 0) {
+						index[target] = lowLink[target] = counter++;
+						nextEdge[target] = offsets[target];
+						stack[stackSize++] = target;
+						onStack[target] = true;
+						path[depth++] = target;
+					} else if (onStack[target]) {
+						lowLink[node] = Math.min(lowLink[node], index[target]);
+					}
+					continue;
+				}
+				depth--;
+				if (depth > 0) {
+					int parent = path[depth - 1];
+					lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+				}
+				if (lowLink[node] == index[node]) {
+					int start = stackSize;
+					do {
+						onStack[stack[--start]] = false;
+					} while (stack[start] != node);
+					if (stackSize - start > 1) {
+						components.add(Arrays.copyOfRange(stack, start, stackSize));
+					}
+					stackSize = start;
+				}
+			}
+		}
+		return components;
+	}
+
+}
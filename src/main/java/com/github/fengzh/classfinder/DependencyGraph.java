@@ -0,0 +1,252 @@
+package com.github.fengzh.classfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/*
+ * Type dependencies between classes, with class names interned as integer
+ * ids. Dependencies of a class are resolved once on demand and appended to one
+ * edge array, so each class is a row of compressed sparse row form. Reverse
+ * edges are built in the same form over resolved classes when needed.
+ */
+final class DependencyGraph {
+
+	interface Resolver {
+		/*
+		 * null: not in class path, otherwise referred type names. It may be
+		 * called from several threads at once.
+		 */
+		String[] getDependencies(String className);
+	}
+
+	private static final int UNRESOLVED = -1;
+
+	private static final int MISSING = -2;
+
+	private final Resolver resolver;
+
+	private final Map<String, Integer> ids = new HashMap<>();
+
+	private String[] names = new String[1024];
+
+	// row of class in edges, from offset to end, or UNRESOLVED, MISSING
+	private int[] offsets = new int[1024];
+
+	private int[] ends = new int[1024];
+
+	private int[] edges = new int[8192];
+
+	private int edgeCount;
+
+	private int size;
+
+	// reverse edges of resolved classes in compressed sparse row form
+	private int[] dependentOffsets;
+
+	private int[] dependentIds;
+
+	DependencyGraph(Resolver resolver) {
+		this.resolver = resolver;
+	}
+
+	synchronized int getId(String className) {
+		Integer id = ids.get(className);
+		if (id != null) {
+			return id;
+		}
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+			offsets = Arrays.copyOf(offsets, size * 2);
+			ends = Arrays.copyOf(ends, size * 2);
+		}
+		names[size] = className;
+		offsets[size] = UNRESOLVED;
+		ids.put(className, size);
+		return size++;
+	}
+
+	/*
+	 * -1: unknown class name
+	 */
+	synchronized int findId(String className) {
+		Integer id = ids.get(className);
+		return id == null ? -1 : id;
+	}
+
+	synchronized String getName(int id) {
+		return names[id];
+	}
+
+	synchronized void setDependencies(String className, String[] dependencyNames) {
+		int id = getId(className);
+		if (offsets[id] != UNRESOLVED) {
+			return;
+		}
+		if (dependencyNames == null) {
+			offsets[id] = MISSING;
+			return;
+		}
+		// interned first, as it may grow arrays
+		int[] dependencyIds = new int[dependencyNames.length];
+		for (int i = 0; i < dependencyNames.length; i++) {
+			dependencyIds[i] = getId(dependencyNames[i]);
+		}
+		if (edgeCount + dependencyIds.length > edges.length) {
+			edges = Arrays.copyOf(edges, Math.max(edgeCount
+					+ dependencyIds.length, edges.length * 2));
+		}
+		System.arraycopy(dependencyIds, 0, edges, edgeCount, dependencyIds.length);
+		offsets[id] = edgeCount;
+		edgeCount += dependencyIds.length;
+		ends[id] = edgeCount;
+		dependentOffsets = null;
+		dependentIds = null;
+	}
+
+	private void resolve(int id) {
+		if (offsets[id] == UNRESOLVED) {
+			setDependencies(names[id], resolver.getDependencies(names[id]));
+		}
+	}
+
+	/*
+	 * class is not in class path
+	 */
+	synchronized boolean isMissing(int id) {
+		resolve(id);
+		return offsets[id] == MISSING;
+	}
+
+	/*
+	 * the classes and all classes they depend on directly or indirectly, in
+	 * breadth first order, missing classes included but not followed. Classes
+	 * of one level are resolved in parallel and then merged in level order,
+	 * so the result does not depend on thread timing.
+	 */
+	int[] getDependencyClosure(int... ids) {
+		boolean[] visited;
+		int[] queue;
+		synchronized (this) {
+			visited = new boolean[size];
+			queue = new int[size];
+		}
+		int head = 0;
+		int tail = 0;
+		for (int id : ids) {
+			if (!visited[id]) {
+				visited[id] = true;
+				queue[tail++] = id;
+			}
+		}
+		while (head < tail) {
+			int levelEnd = tail;
+			resolveAll(queue, head, levelEnd);
+			synchronized (this) {
+				if (visited.length < size) {
+					// resolved classes brought new names
+					visited = Arrays.copyOf(visited, size);
+					queue = Arrays.copyOf(queue, size);
+				}
+				for (; head < levelEnd; head++) {
+					int current = queue[head];
+					for (int i = rowStart(current); i < rowEnd(current); i++) {
+						int dependencyId = edges[i];
+						if (!visited[dependencyId]) {
+							visited[dependencyId] = true;
+							queue[tail++] = dependencyId;
+						}
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(queue, tail);
+	}
+
+	/*
+	 * resolve unresolved classes in worker pool, outside of graph lock, and
+	 * record them in the given order
+	 */
+	private void resolveAll(int[] ids, int from, int to) {
+		List<String> classNames = new ArrayList<>();
+		synchronized (this) {
+			for (int i = from; i < to; i++) {
+				if (offsets[ids[i]] == UNRESOLVED) {
+					classNames.add(names[ids[i]]);
+				}
+			}
+		}
+		List<Callable<String[]>> tasks = new ArrayList<>(classNames.size());
+		for (String className : classNames) {
+			tasks.add(() -> resolver.getDependencies(className));
+		}
+		List<String[]> results = Util.invokeAll(tasks);
+		synchronized (this) {
+			for (int i = 0; i < classNames.size(); i++) {
+				setDependencies(classNames.get(i), results.get(i));
+			}
+		}
+	}
+
+	private void buildDependents() {
+		if (dependentOffsets != null) {
+			return;
+		}
+		int[] offsets = new int[size + 1];
+		for (int id = 0; id < size; id++) {
+			for (int i = rowStart(id); i < rowEnd(id); i++) {
+				offsets[edges[i] + 1]++;
+			}
+		}
+		for (int id = 0; id < size; id++) {
+			offsets[id + 1] += offsets[id];
+		}
+		int[] dependents = new int[offsets[size]];
+		int[] next = Arrays.copyOf(offsets, size);
+		for (int id = 0; id < size; id++) {
+			for (int i = rowStart(id); i < rowEnd(id); i++) {
+				dependents[next[edges[i]]++] = id;
+			}
+		}
+		dependentOffsets = offsets;
+		dependentIds = dependents;
+	}
+
+	// empty row for unresolved or missing class
+	private int rowStart(int id) {
+		return offsets[id] < 0 ? 0 : offsets[id];
+	}
+
+	private int rowEnd(int id) {
+		return offsets[id] < 0 ? 0 : ends[id];
+	}
+
+	/*
+	 * all resolved classes depending on the class directly or indirectly, in
+	 * breadth first order, the class itself excluded
+	 */
+	synchronized int[] getDependentClosure(int id) {
+		buildDependents();
+		boolean[] visited = new boolean[size];
+		int[] queue = new int[size];
+		int head = 0;
+		int tail = 0;
+		visited[id] = true;
+		queue[tail++] = id;
+		while (head < tail) {
+			int current = queue[head++];
+			for (int i = dependentOffsets[current]; i < dependentOffsets[current + 1]; i++) {
+				int dependentId = dependentIds[i];
+				if (!visited[dependentId]) {
+					visited[dependentId] = true;
+					queue[tail++] = dependentId;
+				}
+			}
+		}
+		return Arrays.copyOfRange(queue, 1, tail);
+	}
+
+}
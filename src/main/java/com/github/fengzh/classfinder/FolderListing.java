@@ -0,0 +1,109 @@
+package com.github.fengzh.classfinder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * All files and sub folders of a folder, with names relative to it like
+ * "a/b/C.class" and "a/b/". Sub folders are walked in parallel, and attributes
+ * are read once per file.
+ */
+final class FolderListing {
+
+	private static class Node {
+		private final String name;
+
+		private final Map<String, BasicFileAttributes> files = new LinkedHashMap<>();
+
+		private final List<Node> subFolders = new ArrayList<>();
+
+		Node(String name) {
+			this.name = name;
+		}
+	}
+
+	private static class Walk extends RecursiveTask<Node> {
+		private static final long serialVersionUID = 1L;
+
+		private final Path folder;
+
+		private final String parentName;
+
+		Walk(Path folder, String parentName) {
+			this.folder = folder;
+			this.parentName = parentName;
+		}
+
+		@Override
+		protected Node compute() {
+			Node node = new Node(parentName);
+			List<Walk> subWalks = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+				for (Path path : stream) {
+					BasicFileAttributes attributes;
+					try {
+						attributes = Files.readAttributes(path,
+								BasicFileAttributes.class);
+					} catch (IOException e) {
+						// like broken link
+						continue;
+					}
+					String name = parentName + path.getFileName();
+					if (attributes.isDirectory()) {
+						subWalks.add(new Walk(path, name + "/"));
+					} else {
+						node.files.put(name, attributes);
+					}
+				}
+			} catch (IOException e) {
+				return node;
+			}
+			for (Walk walk : ForkJoinTask.invokeAll(subWalks)) {
+				node.subFolders.add(walk.join());
+			}
+			return node;
+		}
+	}
+
+	private final Map<String, BasicFileAttributes> files = new LinkedHashMap<>();
+
+	private FolderListing() {
+	}
+
+	static FolderListing list(File folder) {
+		Walk walk = new Walk(folder.toPath(), "");
+		Node root = ForkJoinTask.inForkJoinPool() ? walk.invoke() : Util
+				.getWorkerPool().invoke(walk);
+		FolderListing listing = new FolderListing();
+		listing.add(root);
+		return listing;
+	}
+
+	// files of a folder before its sub folders, sub folders in listed order
+	private void add(Node node) {
+		files.putAll(node.files);
+		for (Node subFolder : node.subFolders) {
+			add(subFolder);
+		}
+	}
+
+	/*
+	 * relative file name -> attributes, files of a folder before its sub
+	 * folders
+	 */
+	Map<String, BasicFileAttributes> getFiles() {
+		return Collections.unmodifiableMap(files);
+	}
+
+}
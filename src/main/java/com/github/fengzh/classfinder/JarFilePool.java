@@ -0,0 +1,181 @@
+package com.github.fengzh.classfinder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipFile;
+
+/*
+ * Jar files opened once and shared by class path lookup, indexing and class
+ * parsing. At most maxOpen files are kept open, least recently used idle file
+ * is closed first. File in use is never closed, so the bound may be exceeded
+ * until it is released.
+ */
+final class JarFilePool {
+
+	private static class Handle {
+		private final JarFile jarFile;
+
+		private int users;
+
+		// closed when released by last user
+		private boolean invalid;
+
+		// resolved on first lookup, see ReleaseOverlay
+		private ReleaseOverlay overlay;
+
+		Handle(JarFile jarFile) {
+			this.jarFile = jarFile;
+		}
+	}
+
+	private final int maxOpen;
+
+	private final LinkedHashMap<String, Handle> handles = new LinkedHashMap<>(16,
+			0.75f, true);
+
+	// handles by jar file, including invalid ones still in use
+	private final Map<JarFile, Handle> inUse = new HashMap<>();
+
+	private long openCount;
+
+	private long evictionCount;
+
+	JarFilePool(int maxOpen) {
+		if (maxOpen <= 0) {
+			throw new IllegalArgumentException("invalid pool bound: " + maxOpen);
+		}
+		this.maxOpen = maxOpen;
+	}
+
+	private static String keyOf(File file) {
+		return file.getAbsolutePath();
+	}
+
+	/*
+	 * must be released after use
+	 */
+	JarFile acquire(File file) throws IOException {
+		String key = keyOf(file);
+		synchronized (this) {
+			Handle handle = handles.get(key);
+			if (handle != null) {
+				return use(handle);
+			}
+		}
+		// open outside lock, as reading central directory takes time
+		JarFile jarFile = new JarFile(file, true, ZipFile.OPEN_READ);
+		synchronized (this) {
+			Handle handle = handles.get(key);
+			if (handle != null) {
+				close(jarFile);
+				return use(handle);
+			}
+			handle = new Handle(jarFile);
+			handles.put(key, handle);
+			openCount++;
+			JarFile acquired = use(handle);
+			evictIdle();
+			return acquired;
+		}
+	}
+
+	private JarFile use(Handle handle) {
+		handle.users++;
+		inUse.put(handle.jarFile, handle);
+		return handle.jarFile;
+	}
+
+	/*
+	 * entries of acquired multi-release jar chosen for target release
+	 */
+	ReleaseOverlay getOverlay(JarFile jarFile) throws IOException {
+		Handle handle;
+		synchronized (this) {
+			handle = inUse.get(jarFile);
+			if (handle == null) {
+				throw new IllegalStateException("jar file is not acquired: "
+						+ jarFile.getName());
+			}
+			if (handle.overlay != null
+					&& handle.overlay.getRelease() == ReleaseOverlay
+							.getTargetRelease()) {
+				return handle.overlay;
+			}
+		}
+		ReleaseOverlay overlay = ReleaseOverlay.of(jarFile);
+		synchronized (this) {
+			handle.overlay = overlay;
+		}
+		return overlay;
+	}
+
+	/*
+	 * entry of acquired jar file, versioned one of multi-release jar
+	 */
+	JarEntry getEntry(JarFile jarFile, String name) throws IOException {
+		return jarFile.getJarEntry(getOverlay(jarFile).getEntryName(name));
+	}
+
+	synchronized void release(JarFile jarFile) {
+		Handle handle = inUse.get(jarFile);
+		if (handle == null) {
+			return;
+		}
+		if (--handle.users == 0) {
+			inUse.remove(jarFile);
+			if (handle.invalid) {
+				close(jarFile);
+			} else {
+				evictIdle();
+			}
+		}
+	}
+
+	/*
+	 * close jar file changed on disk, once it is not in use
+	 */
+	synchronized void invalidate(File file) {
+		Handle handle = handles.remove(keyOf(file));
+		if (handle != null) {
+			if (handle.users == 0) {
+				close(handle.jarFile);
+			} else {
+				handle.invalid = true;
+			}
+		}
+	}
+
+	private void evictIdle() {
+		Iterator<Handle> it = handles.values().iterator();
+		while (handles.size() > maxOpen && it.hasNext()) {
+			Handle handle = it.next();
+			if (handle.users == 0) {
+				it.remove();
+				close(handle.jarFile);
+				evictionCount++;
+			}
+		}
+	}
+
+	private static void close(JarFile jarFile) {
+		try {
+			jarFile.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	synchronized long getOpenCount() {
+		return openCount;
+	}
+
+	synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.github.fengzh.classfinder;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.fengzh.classfinder.ClassParserProvider.Jclass;
+
+/*
+ * LRU cache of parsed classes, bounded by class count and total class file size
+ */
+final class JclassCache {
+
+	private final int maxCount;
+
+	private final long maxWeight;
+
+	private final LinkedHashMap<String, Jclass> map = new LinkedHashMap<>(16,
+			0.75f, true);
+
+	private long weight;
+
+	private long hitCount;
+
+	private long missCount;
+
+	private long evictionCount;
+
+	JclassCache(int maxCount, long maxWeight) {
+		if (maxCount <= 0 || maxWeight <= 0) {
+			throw new IllegalArgumentException("invalid cache bound: "
+					+ maxCount + ", " + maxWeight);
+		}
+		this.maxCount = maxCount;
+		this.maxWeight = maxWeight;
+	}
+
+	private static long weigh(Jclass jclass) {
+		return Math.max(jclass.getClassFileSize(), 1);
+	}
+
+	synchronized Jclass get(String key) {
+		Jclass jclass = map.get(key);
+		if (jclass != null) {
+			hitCount++;
+		} else {
+			missCount++;
+		}
+		return jclass;
+	}
+
+	synchronized void put(String key, Jclass jclass) {
+		Jclass previous = map.put(key, jclass);
+		if (previous != null) {
+			weight -= weigh(previous);
+		}
+		weight += weigh(jclass);
+		Iterator<Map.Entry<String, Jclass>> it = map.entrySet().iterator();
+		while ((map.size() > maxCount || weight > maxWeight) && it.hasNext()) {
+			Map.Entry<String, Jclass> eldest = it.next();
+			if (eldest.getValue() == jclass) {
+				// keep the latest one
+				continue;
+			}
+			weight -= weigh(eldest.getValue());
+			it.remove();
+			evictionCount++;
+		}
+	}
+
+	synchronized void clear() {
+		map.clear();
+		weight = 0;
+	}
+
+	synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	synchronized long getMissCount() {
+		return missCount;
+	}
+
+	synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+}
@@ -0,0 +1,349 @@
+package com.github.fengzh.classfinder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import com.github.fengzh.classfinder.Util.ClassFileAttribute;
+
+/*
+ * Class folder or jar inside a fat jar or war, like "BOOT-INF/classes/" or
+ * "WEB-INF/lib/a.jar", read in place without extraction. Code source URL is
+ * like "jar:file:/app.jar!/WEB-INF/lib/a.jar". Stored jar is read through
+ * mapped slice of outer file, compressed one is inflated once and kept.
+ * Entries are indexed in memory, not in class index.
+ */
+final class NestedArchive {
+
+	private static final String[] CLASS_FOLDERS = { "BOOT-INF/classes/",
+			"WEB-INF/classes/" };
+
+	private static final String[] LIB_FOLDERS = { "BOOT-INF/lib/",
+			"WEB-INF/lib/" };
+
+	private static final byte[][] CLASS_FOLDER_BYTES = toBytes(CLASS_FOLDERS);
+
+	// code source -> opened archive
+	private static final Map<String, NestedArchive> archives = new HashMap<>();
+
+	// handler of nested jar entry URL, which JDK jar handler refuses
+	private static final URLStreamHandler ENTRY_HANDLER = new URLStreamHandler() {
+		@Override
+		protected URLConnection openConnection(URL url) {
+			return new URLConnection(url) {
+				@Override
+				public void connect() {
+				}
+
+				@Override
+				public InputStream getInputStream() throws IOException {
+					return openStream(getURL());
+				}
+			};
+		}
+	};
+
+	private final File outerFile;
+
+	private final String name;
+
+	// outer zip for class folder, or nested jar
+	private final ZipDirectory directory;
+
+	// entry name inside archive -> position in directory
+	private final Map<String, Integer> entries = new HashMap<>();
+
+	private final Map<String, ClassFileAttribute> classes = new LinkedHashMap<>();
+
+	private final Set<String> directories = new HashSet<>();
+
+	private NestedArchive(File outerFile, String name) throws IOException {
+		this.outerFile = outerFile;
+		this.name = name;
+		ZipDirectory outer = ZipDirectory.open(outerFile);
+		if (isFolderName(name)) {
+			directory = outer;
+		} else {
+			try {
+				directory = ZipDirectory.open(readContent(outer, name), name);
+			} finally {
+				outer.close();
+			}
+		}
+		try {
+			scan(isFolderName(name) ? name : "");
+		} catch (IOException | RuntimeException e) {
+			directory.close();
+			throw e;
+		}
+	}
+
+	private static ByteBuffer readContent(ZipDirectory outer,
+			String name) throws IOException {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		while (outer.next()) {
+			if (outer.nameLength() == nameBytes.length
+					&& outer.nameStartsWith(nameBytes)) {
+				return outer.getContent();
+			}
+		}
+		throw new FileNotFoundException(name);
+	}
+
+	private void scan(String prefix) throws IOException {
+		byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+		ReleaseOverlay overlay = new ReleaseOverlay();
+		while (directory.next()) {
+			if (!directory.nameStartsWith(prefixBytes)) {
+				continue;
+			}
+			String entryName = directory.getName().substring(prefix.length());
+			entries.put(entryName, directory.position());
+			Util.addDirectories(directories, entryName);
+			if (prefix.isEmpty() && ReleaseOverlay.isVersioned(directory)) {
+				overlay.add(directory);
+			} else if (directory.isClassFile()
+					&& (!prefix.isEmpty() || !isInClassFolder(directory))) {
+				classes.put(Util.unResolveName(entryName),
+						Util.toClassFileAttribute(directory));
+			}
+		}
+		if (!overlay.isEmpty() && ReleaseOverlay.isMultiRelease(readManifest())) {
+			// versioned entry is read by its base name
+			for (String entryName : overlay.getNames()) {
+				entries.put(entryName, entries.get(overlay.getEntryName(entryName)));
+				Util.addDirectories(directories, entryName);
+			}
+			classes.putAll(overlay.getClasses());
+		}
+	}
+
+	private Manifest readManifest() throws IOException {
+		if (!entries.containsKey(JarFile.MANIFEST_NAME)) {
+			return null;
+		}
+		try (InputStream in = getInputStream(JarFile.MANIFEST_NAME)) {
+			return new Manifest(in);
+		}
+	}
+
+	private static boolean isFolderName(String name) {
+		return name.endsWith("/");
+	}
+
+	/*
+	 * entry of outer jar, like "BOOT-INF/classes/a/B.class", loaded through
+	 * nested class folder instead
+	 */
+	static boolean isInClassFolder(ZipDirectory directory) {
+		for (byte[] folder : CLASS_FOLDER_BYTES) {
+			if (directory.nameStartsWith(folder)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static byte[][] toBytes(String[] strings) {
+		byte[][] bytes = new byte[strings.length][];
+		for (int i = 0; i < strings.length; i++) {
+			bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+		}
+		return bytes;
+	}
+
+	/*
+	 * if directories of outer jar may have nested archive
+	 */
+	static boolean mayHaveNested(Set<String> directories) {
+		for (String folder : CLASS_FOLDERS) {
+			if (directories.contains(folder)) {
+				return true;
+			}
+		}
+		for (String folder : LIB_FOLDERS) {
+			if (directories.contains(folder)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * code sources of nested archives in outer jar, class folder first, then
+	 * jars in entry order
+	 */
+	static URL[] listNested(URL jarUrl, File jarFile) throws IOException {
+		List<String> folders = new ArrayList<>();
+		List<String> jars = new ArrayList<>();
+		try (ZipDirectory outer = ZipDirectory.open(jarFile)) {
+			while (outer.next()) {
+				String entryName = outer.getName();
+				if (isNestedName(entryName)) {
+					(isFolderName(entryName) ? folders : jars).add(entryName);
+				} else if (!outer.isDirectory()) {
+					// class folder without directory entry
+					for (String folder : CLASS_FOLDERS) {
+						if (entryName.startsWith(folder)
+								&& !folders.contains(folder)) {
+							folders.add(folder);
+						}
+					}
+				}
+			}
+		}
+		folders.addAll(jars);
+		URL[] urls = new URL[folders.size()];
+		for (int i = 0; i < urls.length; i++) {
+			urls[i] = new URL("jar:" + jarUrl + "!/" + folders.get(i));
+		}
+		return urls;
+	}
+
+	private static boolean isNestedName(String entryName) {
+		for (String folder : CLASS_FOLDERS) {
+			if (entryName.equals(folder)) {
+				return true;
+			}
+		}
+		for (String folder : LIB_FOLDERS) {
+			if (entryName.startsWith(folder)
+					&& entryName.indexOf('/', folder.length()) < 0
+					&& entryName.toLowerCase().endsWith(".jar")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * code source of nested archive, like "jar:file:/app.jar!/BOOT-INF/lib/a.jar"
+	 */
+	static boolean isNested(URL url) {
+		if (!Util.isJarUrl(url)) {
+			return false;
+		}
+		String file = url.getFile();
+		int separator = file.indexOf("!/");
+		return separator > 0 && file.startsWith("file:")
+				&& file.indexOf("!/", separator + 2) < 0
+				&& isNestedName(file.substring(separator + 2));
+	}
+
+	/*
+	 * URL of entry in nested jar, like
+	 * "jar:jar:file:/app.jar!/BOOT-INF/lib/a.jar!/b/C.class"
+	 */
+	static URL newEntryURL(String file) throws MalformedURLException {
+		return new URL("jar", "", -1, file, ENTRY_HANDLER);
+	}
+
+	static InputStream openStream(URL entryUrl) throws IOException {
+		String spec = entryUrl.toString();
+		int separator = spec.lastIndexOf("!/");
+		if (separator > 4 && spec.startsWith("jar:")) {
+			URL codeSource = new URL(spec.substring(4, separator));
+			if (isNested(codeSource)) {
+				return get(codeSource).getInputStream(spec.substring(separator + 2));
+			}
+		}
+		throw new FileNotFoundException(spec);
+	}
+
+	static NestedArchive get(URL codeSource) throws IOException {
+		String key = codeSource.toString();
+		synchronized (archives) {
+			NestedArchive archive = archives.get(key);
+			if (archive == null) {
+				String file = codeSource.getFile();
+				int separator = file.indexOf("!/");
+				File outerFile;
+				try {
+					outerFile = Util.toFile(new URL(file.substring(0, separator)));
+				} catch (MalformedURLException | IllegalArgumentException e) {
+					throw new FileNotFoundException(key);
+				}
+				archive = new NestedArchive(outerFile, file.substring(separator + 2));
+				archives.put(key, archive);
+			}
+			return archive;
+		}
+	}
+
+	/*
+	 * close archives of outer jar changed on disk
+	 */
+	static void invalidate(File outerFile) {
+		synchronized (archives) {
+			Iterator<NestedArchive> it = archives.values().iterator();
+			while (it.hasNext()) {
+				NestedArchive archive = it.next();
+				if (archive.outerFile.equals(outerFile)) {
+					it.remove();
+					try {
+						archive.directory.close();
+					} catch (IOException ignored) {
+					}
+				}
+			}
+		}
+	}
+
+	boolean isFolder() {
+		return isFolderName(name);
+	}
+
+	Map<String, ClassFileAttribute> getClasses() {
+		return Collections.unmodifiableMap(classes);
+	}
+
+	Set<String> getDirectories() {
+		return Collections.unmodifiableSet(directories);
+	}
+
+	/*
+	 * same lookup as JarFile.getJarEntry, exact name or with '/'
+	 */
+	boolean hasEntry(String entryName) {
+		if (entryName.isEmpty()) {
+			return isFolder() ? !entries.isEmpty() : entries.containsKey("/")
+					|| entries.containsKey("");
+		}
+		return entries.containsKey(entryName)
+				|| entries.containsKey(entryName + "/");
+	}
+
+	boolean hasManifest() {
+		return hasEntry(JarFile.MANIFEST_NAME);
+	}
+
+	InputStream getInputStream(String entryName) throws IOException {
+		Integer position = entries.get(entryName);
+		if (position == null) {
+			throw new FileNotFoundException(name + "!/" + entryName);
+		}
+		synchronized (directory) {
+			directory.moveTo(position);
+			return directory.getInputStream();
+		}
+	}
+
+}
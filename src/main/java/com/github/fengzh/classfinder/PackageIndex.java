@@ -0,0 +1,82 @@
+package com.github.fengzh.classfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * Sorted class names, so classes of a package and its sub packages are one
+ * contiguous range. The position of a class name is used as its id.
+ */
+final class PackageIndex {
+
+	private final String[] names;
+
+	PackageIndex(Collection<String> classNames) {
+		names = classNames.toArray(new String[classNames.size()]);
+		Arrays.sort(names);
+	}
+
+	int size() {
+		return names.length;
+	}
+
+	/*
+	 * -1: not in class path
+	 */
+	int getId(String className) {
+		int id = Arrays.binarySearch(names, className);
+		return id < 0 ? -1 : id;
+	}
+
+	String getName(int id) {
+		return names[id];
+	}
+
+	/*
+	 * ids of classes in package and its sub packages: [from, to), all classes
+	 * if package name is null
+	 */
+	int[] getRange(String packageName) {
+		if (packageName == null) {
+			return new int[] { 0, names.length };
+		}
+		return getPrefixRange(packageName + '.');
+	}
+
+	/*
+	 * ids of classes starting with prefix: [from, to)
+	 */
+	int[] getPrefixRange(String prefix) {
+		if (prefix.isEmpty()) {
+			return new int[] { 0, names.length };
+		}
+		// prefix with last char increased is the upper bound
+		int last = prefix.length() - 1;
+		return new int[] { lowerBound(prefix),
+				lowerBound(prefix.substring(0, last)
+						+ (char) (prefix.charAt(last) + 1)) };
+	}
+
+	private int lowerBound(String key) {
+		int id = Arrays.binarySearch(names, key);
+		return id < 0 ? -id - 1 : id;
+	}
+
+	String[] findPackageClasses(String packageName, boolean directPackage) {
+		int[] range = getRange(packageName);
+		if (!directPackage) {
+			return Arrays.copyOfRange(names, range[0], range[1]);
+		}
+		int start = packageName == null ? 0 : packageName.length() + 1;
+		List<String> found = new ArrayList<>();
+		for (int id = range[0]; id < range[1]; id++) {
+			if (names[id].indexOf('.', start) < 0) {
+				found.add(names[id]);
+			}
+		}
+		return found.toArray(new String[found.size()]);
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.github.fengzh.classfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Inverted index from referred class, method ("owner.name") and field
+ * ("owner.name") to the classes referring them, kept as package index ids.
+ */
+final class ReferenceIndex {
+
+	static final int TYPE = 0;
+
+	static final int METHOD = 1;
+
+	static final int FIELD = 2;
+
+	private static class IdList {
+		private int[] ids = new int[4];
+
+		private int size;
+
+		void add(int id) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size++] = id;
+		}
+	}
+
+	private final PackageIndex packageIndex;
+
+	// indexed by TYPE, METHOD and FIELD
+	private final List<Map<String, IdList>> referredBy = Arrays.asList(
+			new HashMap<>(), new HashMap<>(), new HashMap<>());
+
+	ReferenceIndex(PackageIndex packageIndex) {
+		this.packageIndex = packageIndex;
+	}
+
+	/*
+	 * references: referred class names, method names and field names
+	 */
+	void addReferences(String className, String[][] references) {
+		int id = packageIndex.getId(className);
+		if (id < 0) {
+			return;
+		}
+		for (int kind = TYPE; kind <= FIELD; kind++) {
+			for (String name : references[kind]) {
+				referredBy.get(kind).computeIfAbsent(name, k -> new IdList()).add(id);
+			}
+		}
+	}
+
+	/*
+	 * packageName: null for all packages, otherwise including sub packages
+	 */
+	String[] findReferencedBy(int kind, String name, String packageName) {
+		IdList list = referredBy.get(kind).get(name);
+		if (list == null) {
+			return new String[0];
+		}
+		int[] range = packageIndex.getRange(packageName);
+		List<String> found = new ArrayList<>();
+		for (int i = 0; i < list.size; i++) {
+			int id = list.ids[i];
+			if (id >= range[0] && id < range[1]) {
+				found.add(packageIndex.getName(id));
+			}
+		}
+		return found.toArray(new String[found.size()]);
+	}
+
+}
@@ -0,0 +1,166 @@
+package com.github.fengzh.classfinder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import com.github.fengzh.classfinder.Util.ClassFileAttribute;
+
+/*
+ * Entries of multi-release jar chosen for target release, like "a/B.class" ->
+ * "META-INF/versions/11/a/B.class", resolved once per jar so lookups stay a
+ * hash hit. Versioned entries are never taken as classes by their own name.
+ */
+final class ReleaseOverlay {
+
+	static final String VERSIONS = "META-INF/versions/";
+
+	private static final byte[] VERSIONS_BYTES = VERSIONS
+			.getBytes(StandardCharsets.UTF_8);
+
+	private static final String MODULE_INFO = "module-info.class";
+
+	// versions below are ignored by JarFile too
+	private static final int BASE_RELEASE = 8;
+
+	private static volatile int targetRelease = defaultRelease();
+
+	private final int release = targetRelease;
+
+	// base entry name -> versioned entry name
+	private final Map<String, String> entries = new LinkedHashMap<>();
+
+	private final Map<String, Integer> versions = new HashMap<>();
+
+	// class name -> attribute of chosen versioned entry
+	private final Map<String, ClassFileAttribute> classes = new LinkedHashMap<>();
+
+	private static int defaultRelease() {
+		Integer release = Integer.getInteger("classfinder.release");
+		if (release != null) {
+			return release;
+		}
+		String version = System.getProperty("java.specification.version", "");
+		try {
+			return Integer.parseInt(version.startsWith("1.") ? version
+					.substring(2) : version);
+		} catch (NumberFormatException e) {
+			return BASE_RELEASE;
+		}
+	}
+
+	/*
+	 * release of multi-release jar entries, runtime release by default, or
+	 * system property "classfinder.release"
+	 */
+	static int getTargetRelease() {
+		return targetRelease;
+	}
+
+	static void setTargetRelease(int release) {
+		if (release < BASE_RELEASE) {
+			throw new IllegalArgumentException("invalid release: " + release);
+		}
+		targetRelease = release;
+	}
+
+	static boolean isMultiRelease(Manifest manifest) {
+		return manifest != null
+				&& "true".equalsIgnoreCase(manifest.getMainAttributes()
+						.getValue(new Attributes.Name("Multi-Release")));
+	}
+
+	/*
+	 * entry at cursor is under META-INF/versions/
+	 */
+	static boolean isVersioned(ZipDirectory directory) {
+		return directory.nameStartsWith(VERSIONS_BYTES);
+	}
+
+	/*
+	 * overlay of opened jar file, empty if it is not multi-release
+	 */
+	static ReleaseOverlay of(JarFile jarFile) throws IOException {
+		ReleaseOverlay overlay = new ReleaseOverlay();
+		if (isMultiRelease(jarFile.getManifest())) {
+			try (ZipDirectory directory = ZipDirectory.open(new File(jarFile
+					.getName()))) {
+				while (directory.next()) {
+					if (isVersioned(directory)) {
+						overlay.add(directory);
+					}
+				}
+			}
+		}
+		return overlay;
+	}
+
+	/*
+	 * take versioned entry at cursor, kept if it is the newest one not above
+	 * target release
+	 */
+	void add(ZipDirectory directory) {
+		String name = directory.getName();
+		int end = name.indexOf('/', VERSIONS.length());
+		if (end < 0 || end + 1 == name.length()) {
+			return;
+		}
+		int version;
+		try {
+			version = Integer.parseInt(name.substring(VERSIONS.length(), end));
+		} catch (NumberFormatException e) {
+			return;
+		}
+		String baseName = name.substring(end + 1);
+		Integer chosen = versions.get(baseName);
+		if (version <= BASE_RELEASE || version > release || chosen != null
+				&& chosen >= version) {
+			return;
+		}
+		versions.put(baseName, version);
+		entries.put(baseName, name);
+		if (directory.isClassFile() && !baseName.equals(MODULE_INFO)) {
+			classes.put(Util.unResolveName(baseName),
+					Util.toClassFileAttribute(directory));
+		}
+	}
+
+	int getRelease() {
+		return release;
+	}
+
+	boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/*
+	 * entry name read for resource name, versioned one if chosen
+	 */
+	String getEntryName(String name) {
+		String versioned = entries.get(name);
+		return versioned == null ? name : versioned;
+	}
+
+	/*
+	 * base names having versioned entry
+	 */
+	Set<String> getNames() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	/*
+	 * class name -> attribute of versioned class file, replacing base one
+	 */
+	Map<String, ClassFileAttribute> getClasses() {
+		return Collections.unmodifiableMap(classes);
+	}
+
+}
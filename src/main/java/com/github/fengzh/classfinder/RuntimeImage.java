@@ -0,0 +1,255 @@
+package com.github.fengzh.classfinder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.github.fengzh.classfinder.Util.ClassFileAttribute;
+
+/*
+ * Modules of Java 9+ runtime image (lib/modules), read through jrt file
+ * system, also for java home other than current one. Code source of module
+ * is like "jrt:/java.base/". Package to module table is built once per java
+ * home, so a class is looked up in its module only.
+ */
+final class RuntimeImage {
+
+	private static final String MODULE_INFO = "module-info.class";
+
+	// canonical java home -> opened image
+	private static final Map<File, RuntimeImage> images = new HashMap<>();
+
+	private class ImageConnection extends URLConnection {
+
+		ImageConnection(URL url) {
+			super(url);
+		}
+
+		@Override
+		public void connect() {
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			Path path = fileSystem.getPath("/modules" + getURL().getPath());
+			if (!Files.isRegularFile(path)) {
+				throw new FileNotFoundException(getURL().toString());
+			}
+			return Files.newInputStream(path);
+		}
+
+		RuntimeImage getImage() {
+			return RuntimeImage.this;
+		}
+	}
+
+	// URL of this image, not of current runtime as JDK jrt handler does
+	private final URLStreamHandler handler = new URLStreamHandler() {
+		@Override
+		protected URLConnection openConnection(URL url) {
+			return new ImageConnection(url);
+		}
+	};
+
+	private final FileSystem fileSystem;
+
+	// resource directory like "java/lang/" -> module
+	private final Map<String, String> moduleByDirectory = new HashMap<>();
+
+	private final Map<String, Set<String>> directoriesByModule = new HashMap<>();
+
+	private final Map<String, Map<String, ClassFileAttribute>> classesByModule = new HashMap<>();
+
+	private RuntimeImage(FileSystem fileSystem) throws IOException {
+		this.fileSystem = fileSystem;
+		try (DirectoryStream<Path> packages = Files.newDirectoryStream(fileSystem
+				.getPath("/packages"))) {
+			for (Path packagePath : packages) {
+				String directory = packagePath.getFileName().toString()
+						.replace('.', '/') + "/";
+				try (DirectoryStream<Path> modules = Files
+						.newDirectoryStream(packagePath)) {
+					for (Path modulePath : modules) {
+						String module = modulePath.getFileName().toString();
+						moduleByDirectory.putIfAbsent(directory, module);
+						Util.addDirectories(directoriesByModule.computeIfAbsent(
+								module, k -> new HashSet<>()), directory);
+					}
+				}
+			}
+		}
+	}
+
+	static boolean hasRuntimeImage(File javaHome) {
+		return new File(new File(javaHome, "lib"), "modules").isFile();
+	}
+
+	static RuntimeImage get(File javaHome) throws IOException {
+		File home = javaHome.getCanonicalFile();
+		synchronized (images) {
+			RuntimeImage image = images.get(home);
+			if (image == null) {
+				image = new RuntimeImage(openFileSystem(home));
+				images.put(home, image);
+			}
+			return image;
+		}
+	}
+
+	private static FileSystem openFileSystem(File javaHome) throws IOException {
+		URI uri = URI.create("jrt:/");
+		if (javaHome.equals(Util.getJavaHome().getCanonicalFile())) {
+			try {
+				return FileSystems.getFileSystem(uri);
+			} catch (ProviderNotFoundException | FileSystemNotFoundException ignored) {
+			}
+		}
+		Map<String, String> env = Collections.singletonMap("java.home",
+				javaHome.getPath());
+		try {
+			return FileSystems.newFileSystem(uri, env);
+		} catch (ProviderNotFoundException e) {
+			// running on Java 8, use jrt file system of the image
+			URL jrtFs = new File(new File(javaHome, "lib"), "jrt-fs.jar").toURI()
+					.toURL();
+			return FileSystems.newFileSystem(uri, env, new URLClassLoader(
+					new URL[] { jrtFs }));
+		}
+	}
+
+	/*
+	 * image of jrt URL, null: not jrt URL
+	 */
+	static RuntimeImage of(URL url) {
+		if (!"jrt".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			URLConnection connection = url.openConnection();
+			if (connection instanceof ImageConnection) {
+				return ((ImageConnection) connection).getImage();
+			}
+			// created by JDK jrt handler, for current runtime
+			return get(Util.getJavaHome());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * code sources of all modules, java.base first
+	 */
+	URL[] getModuleURLs() {
+		Set<String> modules = new TreeSet<>(directoriesByModule.keySet());
+		List<URL> urls = new ArrayList<>();
+		try {
+			if (modules.remove("java.base")) {
+				urls.add(getModuleURL("java.base"));
+			}
+			for (String module : modules) {
+				urls.add(getModuleURL(module));
+			}
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+		return urls.toArray(new URL[urls.size()]);
+	}
+
+	private URL getModuleURL(String module) throws MalformedURLException {
+		return new URL("jrt", null, -1, "/" + module + "/", handler);
+	}
+
+	private static String getModule(URL codeSource) {
+		String path = codeSource.getPath();
+		int end = path.indexOf('/', 1);
+		return path.substring(1, end < 0 ? path.length() : end);
+	}
+
+	Set<String> getDirectories(URL codeSource) {
+		Set<String> directories = directoriesByModule.get(getModule(codeSource));
+		return directories == null ? Collections.<String> emptySet()
+				: Collections.unmodifiableSet(directories);
+	}
+
+	boolean hasEntry(URL codeSource, String name) {
+		String module = getModule(codeSource);
+		if (name.isEmpty()) {
+			return directoriesByModule.containsKey(module);
+		}
+		if (name.contains("..")
+				|| !module.equals(moduleByDirectory.get(Util.getDirectory(name)))
+				&& !getDirectories(codeSource).contains(name.endsWith("/") ? name : name + "/")) {
+			// resource is in package of other module
+			return false;
+		}
+		return Files.exists(fileSystem.getPath("/modules/" + module, name));
+	}
+
+	/*
+	 * class name -> attributes of module, walked once
+	 */
+	Map<String, ClassFileAttribute> getClasses(URL codeSource)
+			throws IOException {
+		String module = getModule(codeSource);
+		synchronized (classesByModule) {
+			Map<String, ClassFileAttribute> classes = classesByModule.get(module);
+			if (classes == null) {
+				classes = listClasses(fileSystem.getPath("/modules/" + module));
+				classesByModule.put(module, classes);
+			}
+			return Collections.unmodifiableMap(classes);
+		}
+	}
+
+	private static Map<String, ClassFileAttribute> listClasses(final Path root)
+			throws IOException {
+		final Map<String, ClassFileAttribute> classes = new LinkedHashMap<>();
+		if (!Files.isDirectory(root)) {
+			return classes;
+		}
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file,
+					BasicFileAttributes attrs) {
+				String name = root.relativize(file).toString();
+				if (name.endsWith(".class") && !name.equals(MODULE_INFO)) {
+					classes.put(Util.unResolveName(name),
+							Util.toClassFileAttribute(attrs));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return classes;
+	}
+
+	InputStream getInputStream(URL codeSource, String name) throws IOException {
+		return new URL(codeSource, name).openStream();
+	}
+
+}
@@ -0,0 +1,123 @@
+package com.github.fengzh.classfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/*
+ * Constant strings of classes, deduplicated, with trigram index to find
+ * candidate strings for sub string search. Classes are kept as package index
+ * ids.
+ */
+final class StringIndex {
+
+	private static class IdList {
+		private int[] ids = new int[2];
+
+		private int size;
+
+		void add(int id) {
+			if (size > 0 && ids[size - 1] == id) {
+				return;
+			}
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size++] = id;
+		}
+	}
+
+	private final PackageIndex packageIndex;
+
+	private final Map<String, Integer> stringIds = new HashMap<>();
+
+	private final List<String> strings = new ArrayList<>();
+
+	// string id -> class ids
+	private final List<IdList> stringClasses = new ArrayList<>();
+
+	// trigram -> string ids
+	private final Map<Long, IdList> trigrams = new HashMap<>();
+
+	StringIndex(PackageIndex packageIndex) {
+		this.packageIndex = packageIndex;
+	}
+
+	private static long trigram(String str, int index) {
+		return ((long) str.charAt(index) << 32)
+				| ((long) str.charAt(index + 1) << 16) | str.charAt(index + 2);
+	}
+
+	void addStrings(String className, String[] classStrings) {
+		int classId = packageIndex.getId(className);
+		if (classId < 0) {
+			return;
+		}
+		for (String str : classStrings) {
+			Integer stringId = stringIds.get(str);
+			if (stringId == null) {
+				stringId = strings.size();
+				stringIds.put(str, stringId);
+				strings.add(str);
+				stringClasses.add(new IdList());
+				for (int i = 0; i + 3 <= str.length(); i++) {
+					trigrams.computeIfAbsent(trigram(str, i), k -> new IdList())
+							.add(stringId);
+				}
+			}
+			stringClasses.get(stringId).add(classId);
+		}
+	}
+
+	/*
+	 * class name -> constant strings containing the text, packageName: null
+	 * for all packages, otherwise including sub packages
+	 */
+	Map<String, Set<String>> findStrings(String text, String packageName) {
+		Map<String, Set<String>> ret = new TreeMap<>();
+		int[] range = packageIndex.getRange(packageName);
+		for (int stringId : findCandidates(text)) {
+			String str = strings.get(stringId);
+			if (!str.contains(text)) {
+				continue;
+			}
+			IdList classIds = stringClasses.get(stringId);
+			for (int i = 0; i < classIds.size; i++) {
+				int classId = classIds.ids[i];
+				if (classId >= range[0] && classId < range[1]) {
+					ret.computeIfAbsent(packageIndex.getName(classId),
+							k -> new TreeSet<>()).add(str);
+				}
+			}
+		}
+		return ret;
+	}
+
+	private int[] findCandidates(String text) {
+		if (text.length() < 3) {
+			int[] all = new int[strings.size()];
+			for (int i = 0; i < all.length; i++) {
+				all[i] = i;
+			}
+			return all;
+		}
+		// the rarest trigram gives the fewest candidates
+		IdList rarest = null;
+		for (int i = 0; i + 3 <= text.length(); i++) {
+			IdList list = trigrams.get(trigram(text, i));
+			if (list == null) {
+				return new int[0];
+			}
+			if (rarest == null || list.size < rarest.size) {
+				rarest = list;
+			}
+		}
+		return Arrays.copyOf(rarest.ids, rarest.size);
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.github.fengzh.classfinder;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 
@@ -79,12 +80,28 @@ public class SystemClassPathBuilder implements ClassPathBuilder {
 
 	protected URL[] getBootClassPath() {
 		if (javaHome == null) {
-			return Util.getBootClassPath();
+			URL[] urls = Util.getBootClassPath();
+			if (urls.length == 0 && RuntimeImage.hasRuntimeImage(Util.getJavaHome())) {
+				// Java 9+, no boot class path
+				return getModuleURLs(Util.getJavaHome());
+			}
+			return urls;
+		} else if (RuntimeImage.hasRuntimeImage(javaHome)) {
+			return getModuleURLs(javaHome);
 		} else {
 			return listJarFiles(new File(javaHome, "lib"));
 		}
 	}
 
+	private static URL[] getModuleURLs(File javaHome) {
+		try {
+			return RuntimeImage.get(javaHome).getModuleURLs();
+		} catch (IOException | RuntimeException e) {
+			// validated later as no Java Runtime Environment
+			return new URL[0];
+		}
+	}
+
 	protected URL[] getExtClassPath() {
 		if (javaHome == null) {
 			return Util.getExtClassPath();
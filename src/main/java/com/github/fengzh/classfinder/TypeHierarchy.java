@@ -0,0 +1,155 @@
+package com.github.fengzh.classfinder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Direct super types and sub types of classes, with class names interned as
+ * integer ids. Super types are resolved on demand, and sub types are available
+ * after complete().
+ */
+final class TypeHierarchy {
+
+	interface Resolver {
+		/*
+		 * null: not in class path, otherwise super class name followed by
+		 * interface names
+		 */
+		String[] getSuperTypes(String className);
+	}
+
+	private static final int[] MISSING = new int[0];
+
+	private final Resolver resolver;
+
+	private final Map<String, Integer> ids = new HashMap<>();
+
+	private String[] names = new String[1024];
+
+	// null: not resolved yet, MISSING: not in class path
+	private int[][] superTypes = new int[1024][];
+
+	private int size;
+
+	// reverse edges in compressed sparse row form
+	private int[] subTypeOffsets;
+
+	private int[] subTypeIds;
+
+	TypeHierarchy(Resolver resolver) {
+		this.resolver = resolver;
+	}
+
+	synchronized int getId(String className) {
+		Integer id = ids.get(className);
+		if (id != null) {
+			return id;
+		}
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+			superTypes = Arrays.copyOf(superTypes, size * 2);
+		}
+		names[size] = className;
+		ids.put(className, size);
+		return size++;
+	}
+
+	/*
+	 * -1: unknown class name
+	 */
+	synchronized int findId(String className) {
+		Integer id = ids.get(className);
+		return id == null ? -1 : id;
+	}
+
+	synchronized String getName(int id) {
+		return names[id];
+	}
+
+	synchronized void setSuperTypes(String className, String[] superTypeNames) {
+		int id = getId(className);
+		if (superTypeNames == null) {
+			superTypes[id] = MISSING;
+			return;
+		}
+		int[] superIds = new int[superTypeNames.length];
+		int count = 0;
+		for (String superTypeName : superTypeNames) {
+			int superId = getId(superTypeName);
+			// java.lang.Object is super class of itself
+			if (superId != id) {
+				superIds[count++] = superId;
+			}
+		}
+		superTypes[id] = count == superIds.length ? superIds : Arrays.copyOf(
+				superIds, count);
+		subTypeOffsets = null;
+		subTypeIds = null;
+	}
+
+	/*
+	 * null: not in class path
+	 */
+	synchronized int[] getSuperTypes(int id) {
+		if (superTypes[id] == null) {
+			setSuperTypes(names[id], resolver.getSuperTypes(names[id]));
+		}
+		return superTypes[id] == MISSING ? null : superTypes[id];
+	}
+
+	/*
+	 * resolve all referred super types, and build sub type index
+	 */
+	synchronized void complete() {
+		for (int id = 0; id < size; id++) {
+			getSuperTypes(id);
+		}
+		if (subTypeOffsets != null) {
+			return;
+		}
+		int[] offsets = new int[size + 1];
+		for (int id = 0; id < size; id++) {
+			for (int superId : superTypes[id]) {
+				offsets[superId + 1]++;
+			}
+		}
+		for (int id = 0; id < size; id++) {
+			offsets[id + 1] += offsets[id];
+		}
+		int[] subIds = new int[offsets[size]];
+		int[] next = Arrays.copyOf(offsets, size);
+		for (int id = 0; id < size; id++) {
+			for (int superId : superTypes[id]) {
+				subIds[next[superId]++] = id;
+			}
+		}
+		subTypeOffsets = offsets;
+		subTypeIds = subIds;
+	}
+
+	/*
+	 * all direct and indirect sub types, in breadth first order
+	 */
+	synchronized int[] getAllSubTypes(int id) {
+		complete();
+		boolean[] visited = new boolean[size];
+		int[] queue = new int[size];
+		int head = 0;
+		int tail = 0;
+		visited[id] = true;
+		queue[tail++] = id;
+		while (head < tail) {
+			int current = queue[head++];
+			for (int i = subTypeOffsets[current]; i < subTypeOffsets[current + 1]; i++) {
+				int subId = subTypeIds[i];
+				if (!visited[subId]) {
+					visited[subId] = true;
+					queue[tail++] = subId;
+				}
+			}
+		}
+		return Arrays.copyOfRange(queue, 1, tail);
+	}
+
+}
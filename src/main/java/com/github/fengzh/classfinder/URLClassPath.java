@@ -14,15 +14,20 @@ import java.util.jar.Attributes.Name;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
-import java.util.zip.ZipFile;
 
 public class URLClassPath {
     final Stack<URL> urls = new Stack<>();
     ArrayList<Loader> loaders = new ArrayList<>();
     HashMap<String, Loader> lmap = new HashMap<>();
     private ArrayList<URL> path = new ArrayList<>();
+    private final ClassIndex index;
 
     public URLClassPath(URL[] urls) {
+        this(urls, null);
+    }
+
+    URLClassPath(URL[] urls, ClassIndex index) {
+        this.index = index;
         Collections.addAll(path, urls);
         push(urls);
     }
@@ -32,8 +37,12 @@ public class URLClassPath {
     }
 
     public Resource getResource(String name) {
+        String directory = getDirectory(name);
         Loader loader;
         for (int i = 0; (loader = getLoader(i)) != null; i++) {
+            if (!loader.mayHaveDirectory(directory)) {
+                continue;
+            }
             Resource res = loader.getResource(name);
             if (res != null) {
                 return res;
@@ -43,6 +52,7 @@ public class URLClassPath {
     }
 
     public Enumeration<Resource> getResources(final String name) {
+        final String directory = getDirectory(name);
         return new Enumeration<Resource>() {
             private int index = 0;
             private Resource res = null;
@@ -53,6 +63,9 @@ public class URLClassPath {
                 } else {
                     Loader loader;
                     while ((loader = getLoader(index++)) != null) {
+                        if (!loader.mayHaveDirectory(directory)) {
+                            continue;
+                        }
                         res = loader.getResource(name);
                         if (res != null) {
                             return true;
@@ -77,6 +90,16 @@ public class URLClassPath {
         };
     }
 
+    /*
+     * directory of resource, like "a/b/" for "a/b/c", null: name may be resolved to other directory
+     */
+    private static String getDirectory(String name) {
+        if (name.startsWith("/") || name.startsWith(".") || name.contains("//") || name.contains("/.")) {
+            return null;
+        }
+        return Util.getDirectory(name);
+    }
+
     private synchronized Loader getLoader(int index) {
         while (loaders.size() < index + 1) {
             URL url;
@@ -110,17 +133,45 @@ public class URLClassPath {
     public Loader getLoader(final URL url) throws IOException {
         String protocol = url.getProtocol();
         String file = url.getFile();
+        if (NestedArchive.isNested(url)) {
+            return new NestedLoader(url);
+        }
+        RuntimeImage image = RuntimeImage.of(url);
+        if (image != null) {
+            return new ModuleLoader(url, image);
+        }
         if (file != null && file.endsWith("/")) {
             if ("file".equals(protocol)) {
                 return new FileLoader(url);
             } else if ("jar".equals(protocol) && file.endsWith("!/")) {
                 URL nestedUrl = new URL(file.substring(0, file.length() - 2));
-                return new JarLoader(nestedUrl);
+                return new JarLoader(nestedUrl, index);
             } else {
                 return new Loader(url);
             }
         } else {
-            return new JarLoader(url);
+            return new JarLoader(url, index);
+        }
+    }
+
+    /*
+     * code source of each loader, in the order resources are looked up
+     */
+    public List<URL> getCodeSourceURLs() {
+        List<URL> list = new ArrayList<>();
+        Loader loader;
+        for (int i = 0; (loader = getLoader(i)) != null; i++) {
+            list.add(loader.getCodeSourceURL());
+        }
+        return list;
+    }
+
+    void close() {
+        for (Loader loader : loaders) {
+            try {
+                loader.close();
+            } catch (IOException ignored) {
+            }
         }
     }
 
@@ -191,21 +242,50 @@ public class URLClassPath {
         URL[] getClassPath() throws IOException {
             return null;
         }
+
+        URL getCodeSourceURL() {
+            return base;
+        }
+
+        /*
+         * false: certainly no resource in directory, see Util.addDirectories. Known without reading the
+         * code source, null directory is any one.
+         */
+        boolean mayHaveDirectory(String directory) {
+            return true;
+        }
     }
 
     static class JarLoader extends Loader {
         private final URL csu;
-        private JarFile jar;
-        private boolean closed = false;
+        private final File file;
+        // null: not indexed when loader is created, jar file is read instead
+        private final ClassIndex.Entry indexEntry;
 
-        JarLoader(URL url)
+        JarLoader(URL url, ClassIndex index)
                 throws IOException {
             super(new URL("jar", "", -1, url + "!/"));
             csu = url;
-            ensureOpen();
+            file = new File(url.getPath());
+            indexEntry = getIndexEntry(index);
+            if (indexEntry == null) {
+                // fail early for missing or broken jar file
+                Util.getJarFilePool().release(acquireJarFile());
+            }
         }
 
-        private static URL[] parseClassPath(URL base, String value)
+        private ClassIndex.Entry getIndexEntry(ClassIndex index) {
+            if (index == null) {
+                return null;
+            }
+            try {
+                return index.getEntry(Util.toFile(csu));
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                return null;
+            }
+        }
+
+        static URL[] parseClassPath(URL base, String value)
                 throws MalformedURLException {
             StringTokenizer st = new StringTokenizer(value);
             URL[] urls = new URL[st.countTokens()];
@@ -218,39 +298,42 @@ public class URLClassPath {
             return urls;
         }
 
-        @Override
-        public void close() throws IOException {
-            if (!closed) {
-                closed = true;
-                ensureOpen();
-                jar.close();
+        /*
+         * shared jar file, must be released after use
+         */
+        private JarFile acquireJarFile() throws IOException {
+            if (!file.exists()) {
+                throw new FileNotFoundException(file.getPath());
             }
-        }
-
-        private void ensureOpen() throws IOException {
-            if (jar == null) {
-                jar = getJarFile(csu);
-            }
-        }
-
-        private JarFile getJarFile(URL url) throws IOException {
-            String path = url.getPath();
-            File f = new File(path);
-            if (!f.exists()) {
-                throw new FileNotFoundException(path);
-            }
-            return new JarFile(new File(path), true, ZipFile.OPEN_READ);
+            return Util.getJarFilePool().acquire(file);
         }
 
         @Override
         Resource getResource(final String name) {
-            try {
-                ensureOpen();
-            } catch (IOException e) {
-                throw new InternalError(e);
+            boolean found;
+            if (indexEntry != null && name.isEmpty()) {
+                found = indexEntry.hasRootEntry();
+            } else if (indexEntry != null && name.equals(JarFile.MANIFEST_NAME)) {
+                found = indexEntry.hasManifest();
+            } else if (indexEntry != null && !indexEntry.mightHaveEntry(name)) {
+                // certainly absent, no need to open jar file
+                found = false;
+            } else {
+                JarFile jar;
+                try {
+                    jar = acquireJarFile();
+                } catch (IOException e) {
+                    throw new InternalError(e);
+                }
+                try {
+                    found = Util.getJarFilePool().getEntry(jar, name) != null;
+                } catch (IOException e) {
+                    found = false;
+                } finally {
+                    Util.getJarFilePool().release(jar);
+                }
             }
-            final JarEntry entry = jar.getJarEntry(name);
-            if (entry != null) {
+            if (found) {
                 final URL url;
                 try {
                     url = new URL(base, name);
@@ -277,11 +360,49 @@ public class URLClassPath {
             return null;
         }
 
+        @Override
+        URL getCodeSourceURL() {
+            return csu;
+        }
+
+        @Override
+        boolean mayHaveDirectory(String directory) {
+            // unindexed jar is not listed, its lookup opens it anyway
+            return directory == null || indexEntry == null || indexEntry.getDirectories().contains(directory);
+        }
+
         @Override
         URL[] getClassPath() throws IOException {
-            ensureOpen();
+            URL[] nested = getNestedArchives();
+            URL[] classPath = getManifestClassPath();
+            if (nested.length == 0 || classPath == null) {
+                return nested.length == 0 ? classPath : nested;
+            }
+            // nested archives first, as they are part of this jar
+            URL[] urls = Arrays.copyOf(nested, nested.length + classPath.length);
+            System.arraycopy(classPath, 0, urls, nested.length, classPath.length);
+            return urls;
+        }
+
+        private URL[] getNestedArchives() throws IOException {
+            if (indexEntry != null && !NestedArchive.mayHaveNested(indexEntry.getDirectories())) {
+                return new URL[0];
+            }
+            return NestedArchive.listNested(csu, file);
+        }
 
-            Manifest man = jar.getManifest();
+        private URL[] getManifestClassPath() throws IOException {
+            if (indexEntry != null) {
+                String value = indexEntry.getClassPath();
+                return value == null ? null : parseClassPath(csu, value);
+            }
+            Manifest man;
+            JarFile jar = acquireJarFile();
+            try {
+                man = jar.getManifest();
+            } finally {
+                Util.getJarFilePool().release(jar);
+            }
             if (man != null) {
                 Attributes attr = man.getMainAttributes();
                 if (attr != null) {
@@ -295,6 +416,101 @@ public class URLClassPath {
         }
     }
 
+    /*
+     * class folder or jar inside fat jar or war, see NestedArchive
+     */
+    private static class NestedLoader extends Loader {
+        private final URL csu;
+        private final NestedArchive archive;
+
+        NestedLoader(URL url) throws IOException {
+            super(url.getFile().endsWith("/") ? url : NestedArchive.newEntryURL(url + "!/"));
+            csu = url;
+            archive = NestedArchive.get(url);
+        }
+
+        @Override
+        Resource getResource(final String name) {
+            if (!archive.hasEntry(name)) {
+                return null;
+            }
+            final URL url;
+            try {
+                url = new URL(base, name);
+            } catch (MalformedURLException e) {
+                return null;
+            }
+            return new Resource() {
+                public String getName() {
+                    return name;
+                }
+
+                public URL getURL() {
+                    return url;
+                }
+
+                public URL getCodeSourceURL() {
+                    return csu;
+                }
+
+            };
+        }
+
+        @Override
+        URL getCodeSourceURL() {
+            return csu;
+        }
+
+        @Override
+        boolean mayHaveDirectory(String directory) {
+            return directory == null || archive.getDirectories().contains(directory);
+        }
+    }
+
+    /*
+     * module of runtime image, like "jrt:/java.base/", see RuntimeImage
+     */
+    private static class ModuleLoader extends Loader {
+        private final RuntimeImage image;
+
+        ModuleLoader(URL url, RuntimeImage image) {
+            super(url);
+            this.image = image;
+        }
+
+        @Override
+        Resource getResource(final String name) {
+            if (!image.hasEntry(base, name)) {
+                return null;
+            }
+            final URL url;
+            try {
+                url = new URL(base, name);
+            } catch (MalformedURLException e) {
+                return null;
+            }
+            return new Resource() {
+                public String getName() {
+                    return name;
+                }
+
+                public URL getURL() {
+                    return url;
+                }
+
+                public URL getCodeSourceURL() {
+                    return base;
+                }
+
+            };
+        }
+
+        @Override
+        boolean mayHaveDirectory(String directory) {
+            return directory == null || image.getDirectories(base).contains(directory);
+        }
+    }
+
     private static class FileLoader extends Loader {
         private File dir;
 
@@ -5,9 +5,17 @@ import java.lang.reflect.Array;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
 final class Util {
 
@@ -17,6 +25,15 @@ final class Util {
 
 	private static ClassLoader dummyLoader;
 
+	private static final int MAX_OPEN_JAR_FILES = 256;
+
+	private static final byte[] MANIFEST_BYTES = JarFile.MANIFEST_NAME
+			.getBytes(StandardCharsets.UTF_8);
+
+	private static ForkJoinPool workerPool;
+
+	private static JarFilePool jarFilePool;
+
 	private static class SuffixFilter implements FilenameFilter {
 
 		private final String suffix;
@@ -42,6 +59,14 @@ final class Util {
 
 	public interface SelectFilter<T> {
 		boolean accept(T name);
+
+		/*
+		 * literal prefixes all accepted names start with, used to skip names
+		 * before decoding them, null: any name may be accepted
+		 */
+		default List<String> getPrefixes() {
+			return null;
+		}
 	}
 
 	private static SelectFilter<?> ACCEPT_ALL = (SelectFilter<Object>) name -> true;
@@ -55,6 +80,25 @@ final class Util {
 		public long getLastModified() {
 			return lastModified;
 		}
+
+		void write(DataOutput out) throws IOException {
+			out.writeLong(lastModified);
+			out.writeLong(size);
+			out.writeLong(signature);
+		}
+
+		static ClassFileAttribute read(DataInput in) throws IOException {
+			ClassFileAttribute attribute = new ClassFileAttribute();
+			attribute.lastModified = in.readLong();
+			attribute.size = in.readLong();
+			attribute.signature = in.readLong();
+			return attribute;
+		}
+
+		boolean isSameContent(ClassFileAttribute other) {
+			return size == other.size && signature == other.signature
+					&& lastModified == other.lastModified;
+		}
 	}
 	
 	// to keep compareTo out of class file attribute to elimiate break comparable contact (equals)
@@ -83,8 +127,8 @@ final class Util {
 
 	private static URL extractJarURL(URL fullURL) {
 		if (isJarUrl(fullURL)) {
-			String fullString = fullURL.getFile();
-			if (fullString != null && fullString.endsWith("!/")) {
+			String fullString = stripVersionedPath(fullURL.getFile());
+			if (fullString.endsWith("!/")) {
 				try {
 					return new URL(fullString.substring(0,
 							fullString.length() - 2));
@@ -99,17 +143,38 @@ final class Util {
 		String fullFilePath = fullURL.getFile();
 		if (fullFilePath.endsWith(name)) {
 			boolean absolutePath = name.startsWith("/");
+			String parentPath = fullFilePath.substring(0, fullFilePath.length()
+					- name.length() + (absolutePath ? 1 : 0));
 			try {
+				if (isJarUrl(fullURL) && parentPath.startsWith("jar:")) {
+					// entry of nested jar
+					return NestedArchive.newEntryURL(parentPath);
+				}
 				return new URL(fullURL.getProtocol(), fullURL.getHost(),
-						fullURL.getPort(), fullFilePath.substring(0,
-								fullFilePath.length() - name.length()
-										+ (absolutePath ? 1 : 0)));
+						fullURL.getPort(), parentPath);
 			} catch (MalformedURLException ignored) {
 			}
 		}
 		return fullURL;
 	}
 
+	/*
+	 * jar root of versioned entry in multi-release jar, like "file:/a.jar!/"
+	 * for "file:/a.jar!/META-INF/versions/11/"
+	 */
+	private static String stripVersionedPath(String path) {
+		String versions = "!/" + ReleaseOverlay.VERSIONS;
+		int start = path.lastIndexOf(versions);
+		if (start < 0) {
+			return path;
+		}
+		String version = path.substring(start + versions.length());
+		if (!version.matches("[0-9]+/")) {
+			return path;
+		}
+		return path.substring(0, start + 2);
+	}
+
 	static URL extractBaseURL(URL url, String name) {
 		URL resourceBaseURL = extractParentURL(url, name);
 		if (isJarUrl(url)) {
@@ -122,7 +187,7 @@ final class Util {
 		return className.replace('.', '/') + CLASS_SUFFIX;
 	}
 
-	private static String unResolveName(String classFileName) {
+	static String unResolveName(String classFileName) {
 		return classFileName.substring(0,
 				classFileName.length() - CLASS_SUFFIX.length())
 				.replace('/', '.');
@@ -162,14 +227,17 @@ final class Util {
 		}
 	}
 
-	private static String[] listClassFileNames(File folder, boolean recursive) {
-		List<String> container = new ArrayList<>();
-		listNamesBy(folder, classFileFilter, null, container, recursive);
-		if (container.isEmpty()) {
-			return new String[0];
-		} else {
-			return container.toArray(new String[container.size()]);
+	/*
+	 * class file name -> attributes, like "a/b/C.class"
+	 */
+	private static Map<String, BasicFileAttributes> listClassFiles(File folder) {
+		Map<String, BasicFileAttributes> classFiles = new LinkedHashMap<>();
+		for (Map.Entry<String, BasicFileAttributes> file : FolderListing.list(folder).getFiles().entrySet()) {
+			if (classFileFilter.accept(folder, file.getKey())) {
+				classFiles.put(file.getKey(), file.getValue());
+			}
 		}
+		return classFiles;
 	}
 
 	private static void listFilesBy(File folder, FilenameFilter filter,
@@ -185,23 +253,6 @@ final class Util {
 		}
 	}
 
-	private static void listNamesBy(File folder, FilenameFilter filter,
-			String parentName, List<String> container, boolean recursive) {
-		String[] files = folder.list(filter);
-		if (files != null) {
-			for (String f : files) {
-				container.add(parentName == null ? f : (parentName + "/" + f));
-			}
-		}
-		if (recursive) {
-			for (File f : listSubFolders(folder)) {
-				listNamesBy(f, filter, parentName == null ? f.getName()
-						: (parentName + "/" + f.getName()), container,
-						recursive);
-			}
-		}
-	}
-
 	private static File[] listSubFolders(File folder) {
 		File[] files = folder.listFiles(subFolderFilter);
 		if (files == null) {
@@ -282,84 +333,392 @@ final class Util {
 		Collections.addAll(list, finder.findResources(""));
 		Collections.addAll(list, finder.findResources(JarFile.MANIFEST_NAME));
 		Map<String, List<URL>> allClassNames = new HashMap<>();
-		getAllClassNames(allClassNames, list, filter);
+		getAllClassNames(allClassNames, list, filter, getClassIndex(finder));
 		return allClassNames;
 	}
 
+	private static ClassIndex getClassIndex(ClassFinder finder) {
+		if (finder instanceof AbstractClassFinder) {
+			return ((AbstractClassFinder) finder).getClassIndex();
+		} else {
+			return null;
+		}
+	}
+
 	private static void getAllClassNames(Map<String, Map<URL, ClassFileAttribute>> allClassNames,
-			List<URL> resources, SelectFilter<String> filter, boolean withAttributes) {
-		for (URL url : resources) {
-			if (isJarUrl(url)) {
-				// Jar File
-				URL jarFileUrl = extractBaseURL(url, JarFile.MANIFEST_NAME);
-				JarFile jarFile = null;
-				try {
-					try {
-						jarFile = new JarFile(new File(jarFileUrl.toURI()));
-					} catch (IOException e) {
-						continue;
-					}
-					Enumeration<JarEntry> entries = jarFile.entries();
-					while (entries.hasMoreElements()) {
-						JarEntry entry = entries.nextElement();
-						if (!entry.isDirectory()
-								&& entry.getName().endsWith(CLASS_SUFFIX)) {
-							// class file entry
-							String className = unResolveName(entry.getName());
+			List<URL> resources, final SelectFilter<String> filter, final boolean withAttributes,
+			final ClassIndex index) {
+		List<Callable<Map<String, ClassFileAttribute>>> tasks = new ArrayList<>(resources.size());
+		for (final URL url : resources) {
+			tasks.add(() -> getClassNames(url, filter, withAttributes, index));
+		}
+		// merge by class path order, as the first location is the effective one
+		List<Map<String, ClassFileAttribute>> results = invokeAll(tasks);
+		for (int i = 0; i < resources.size(); i++) {
+			URL url = resources.get(i);
+			URL baseUrl = isJarUrl(url) ? extractBaseURL(url, JarFile.MANIFEST_NAME) : url;
+			for (Map.Entry<String, ClassFileAttribute> classEntry : results.get(i).entrySet()) {
+				addIntoMap(allClassNames, classEntry.getKey(), baseUrl, classEntry.getValue());
+			}
+		}
+	}
+
+	private static Map<String, ClassFileAttribute> getClassNames(URL url,
+			SelectFilter<String> filter, boolean withAttributes, ClassIndex index) {
+		Map<String, ClassFileAttribute> classes = new LinkedHashMap<>();
+		URL sourceUrl = isJarUrl(url) ? extractBaseURL(url, JarFile.MANIFEST_NAME) : url;
+		if (hasSourceClasses(sourceUrl)) {
+			// Nested Archive or Module
+			Map<String, ClassFileAttribute> sourceClasses;
+			try {
+				sourceClasses = getSourceClasses(sourceUrl);
+			} catch (IOException e) {
+				return classes;
+			}
+			for (Map.Entry<String, ClassFileAttribute> classEntry : sourceClasses.entrySet()) {
+				if (filter.accept(classEntry.getKey())) {
+					classes.put(classEntry.getKey(), withAttributes ? classEntry.getValue() : null);
+				}
+			}
+		} else if (index != null) {
+			ClassIndex.Entry entry;
+			try {
+				entry = getIndexEntry(index, toFile(sourceUrl), !isJarUrl(url));
+			} catch (IOException e) {
+				return classes;
+			}
+			if (withAttributes && filter == ACCEPT_ALL) {
+				return entry.getClasses();
+			}
+			// only class names passing prefixes are tested, as in jar file scan
+			for (String className : entry.getClassNames(filter.getPrefixes())) {
+				if (filter.accept(className)) {
+					classes.put(className, withAttributes ? entry.getClasses().get(className) : null);
+				}
+			}
+		} else if (isJarUrl(url)) {
+			// Jar File
+			URL jarFileUrl = extractBaseURL(url, JarFile.MANIFEST_NAME);
+			// only class file entry names passing prefixes are decoded
+			byte[][] prefixes = toUTF8(filter.getPrefixes());
+			ReleaseOverlay overlay = new ReleaseOverlay();
+			Manifest manifest = null;
+			try (ZipDirectory directory = ZipDirectory.open(new File(jarFileUrl.toURI()))) {
+				while (directory.next()) {
+					if (ReleaseOverlay.isVersioned(directory)) {
+						overlay.add(directory);
+					} else if (directory.isClassFile()) {
+						if (directory.classNameStartsWith(prefixes)
+								&& !NestedArchive.isInClassFolder(directory)) {
+							String className = directory.getClassName();
 							if (filter.accept(className)) {
-								ClassFileAttribute classFileAttr = null;
-								if (withAttributes){
-									classFileAttr = new ClassFileAttribute();
-									classFileAttr.lastModified = entry.getTime();
-									classFileAttr.size = entry.getSize();
-									classFileAttr.signature = entry.getCrc();
-								}
-								addIntoMap(allClassNames, className, jarFileUrl, classFileAttr);
+								classes.put(className, withAttributes ? toClassFileAttribute(directory) : null);
 							}
 						}
+					} else if (isManifest(directory)) {
+						manifest = readManifest(directory);
 					}
-				} catch (URISyntaxException e) {
-					throw new IllegalStateException(e);
-				} finally {
-					if (jarFile != null) {
-						try {
-							jarFile.close();
-						} catch (IOException ignored) {
+				}
+				if (ReleaseOverlay.isMultiRelease(manifest)) {
+					for (Map.Entry<String, ClassFileAttribute> classEntry : overlay.getClasses().entrySet()) {
+						if (filter.accept(classEntry.getKey())) {
+							classes.put(classEntry.getKey(), withAttributes ? classEntry.getValue() : null);
 						}
 					}
 				}
+			} catch (IOException e) {
+				return classes;
+			} catch (URISyntaxException e) {
+				throw new IllegalStateException(e);
+			}
+		} else {
+			// Class Folder
+			try {
+				File classFolder = new File(url.toURI());
+				for (Map.Entry<String, BasicFileAttributes> classFile : listClassFiles(classFolder).entrySet()) {
+					String className = unResolveName(classFile.getKey());
+					if (filter.accept(className)) {
+						classes.put(className, withAttributes ? toClassFileAttribute(classFile.getValue()) : null);
+					}
+				}
+			} catch (URISyntaxException e) {
+				throw new IllegalStateException(e);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalStateException(
+						"handle such url as folder", e);
+			}
+		}
+		return classes;
+	}
+
+	/*
+	 * code source whose classes are listed in memory instead of class index,
+	 * like nested archive or module of runtime image
+	 */
+	static boolean hasSourceClasses(URL codeSource) {
+		return NestedArchive.isNested(codeSource) || RuntimeImage.of(codeSource) != null;
+	}
+
+	static Map<String, ClassFileAttribute> getSourceClasses(URL codeSource) throws IOException {
+		if (NestedArchive.isNested(codeSource)) {
+			return NestedArchive.get(codeSource).getClasses();
+		}
+		RuntimeImage image = RuntimeImage.of(codeSource);
+		if (image == null) {
+			throw new FileNotFoundException(codeSource.toString());
+		}
+		return image.getClasses(codeSource);
+	}
+
+	static InputStream openSourceStream(URL codeSource, String name) throws IOException {
+		if (NestedArchive.isNested(codeSource)) {
+			return NestedArchive.get(codeSource).getInputStream(name);
+		}
+		RuntimeImage image = RuntimeImage.of(codeSource);
+		if (image == null) {
+			throw new FileNotFoundException(codeSource + name);
+		}
+		return image.getInputStream(codeSource, name);
+	}
+
+	/*
+	 * run tasks in worker pool, and keep result in task order
+	 */
+	static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+		List<T> results = new ArrayList<>(tasks.size());
+		try {
+			if (tasks.size() <= 1) {
+				for (Callable<T> task : tasks) {
+					results.add(task.call());
+				}
 			} else {
-				// Class Folder
-				try {
-					File classFolder = new File(url.toURI());
-					for (String classFileName : listClassFileNames(classFolder,
-							true)) {
-						String className = unResolveName(classFileName);
-						if (filter.accept(className)) {
-							ClassFileAttribute classFileAttr = null;
-							if (withAttributes){
-								File classFile = new File(classFolder, classFileName);
-								classFileAttr = new ClassFileAttribute();
-								classFileAttr.lastModified = classFile.lastModified();
-								classFileAttr.size = classFile.length();
-							}
-							addIntoMap(allClassNames, className, url, classFileAttr);
+				for (Future<T> future : getWorkerPool().invokeAll(tasks)) {
+					results.add(future.get());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		return results;
+	}
+
+	synchronized static JarFilePool getJarFilePool() {
+		if (jarFilePool == null) {
+			jarFilePool = new JarFilePool(MAX_OPEN_JAR_FILES);
+		}
+		return jarFilePool;
+	}
+
+	/*
+	 * stream of resource url, jar entry is read from shared jar file
+	 */
+	static InputStream openStream(URL url) throws IOException {
+		String spec = url.toString();
+		int separator = spec.indexOf("!/");
+		if (isJarUrl(url) && separator >= 0 && spec.indexOf("!/", separator + 2) >= 0) {
+			// entry of nested jar
+			return NestedArchive.openStream(url);
+		}
+		if (!isJarUrl(url) || separator < 0) {
+			return url.openStream();
+		}
+		final JarFile jarFile = getJarFilePool().acquire(toFile(new URL(spec.substring(4, separator))));
+		try {
+			JarEntry entry = getJarFilePool().getEntry(jarFile, spec.substring(separator + 2));
+			if (entry == null) {
+				throw new FileNotFoundException(spec);
+			}
+			return new FilterInputStream(jarFile.getInputStream(entry)) {
+				private boolean closed;
+
+				@Override
+				public void close() throws IOException {
+					if (!closed) {
+						closed = true;
+						try {
+							super.close();
+						} finally {
+							getJarFilePool().release(jarFile);
 						}
 					}
-				} catch (URISyntaxException e) {
-					throw new IllegalStateException(e);
-				} catch (IllegalArgumentException e) {
-					throw new IllegalStateException(
-							"handle such url as folder", e);
 				}
+			};
+		} catch (IOException | RuntimeException e) {
+			getJarFilePool().release(jarFile);
+			throw e;
+		}
+	}
+
+	synchronized static ForkJoinPool getWorkerPool() {
+		if (workerPool == null) {
+			workerPool = new ForkJoinPool(Runtime.getRuntime()
+					.availableProcessors());
+		}
+		return workerPool;
+	}
+
+	static ClassIndex.Entry getIndexEntry(ClassIndex index, File file,
+			boolean folder) throws IOException {
+		ClassIndex.Entry entry = index.getEntry(file);
+		if (entry == null) {
+			entry = folder ? indexClassFolder(file) : indexJarFile(file);
+			index.putEntry(entry);
+		}
+		return entry;
+	}
+
+	static ClassIndex.Entry indexJarFile(File file) throws IOException {
+		try (ZipDirectory directory = ZipDirectory.open(file)) {
+			ClassIndex.Entry entry = new ClassIndex.Entry(file, false);
+			BloomFilter entryNames = new BloomFilter((int) Math.min(
+					directory.size(), Integer.MAX_VALUE));
+			boolean hasManifest = false;
+			boolean rootEntry = false;
+			Manifest manifest = null;
+			ReleaseOverlay overlay = new ReleaseOverlay();
+			// entries are mostly grouped by directory, parents added once per run
+			String lastDirectory = null;
+			while (directory.next()) {
+				String name = directory.getName();
+				entryNames.add(name);
+				if (name.endsWith("/")) {
+					// jar file also finds directory entry without '/'
+					entryNames.add(name.substring(0, name.length() - 1));
+				}
+				if (!isInDirectory(name, lastDirectory)) {
+					lastDirectory = getDirectory(name);
+					addDirectories(entry.getDirectories(), lastDirectory);
+				}
+				if (ReleaseOverlay.isVersioned(directory)) {
+					overlay.add(directory);
+					continue;
+				}
+				if (directory.isClassFile()) {
+					if (!NestedArchive.isInClassFolder(directory)) {
+						entry.addClass(unResolveName(name), toClassFileAttribute(directory));
+					}
+					continue;
+				}
+				// same lookup as JarFile: exact name or with '/', manifest
+				// name also ignoring case
+				if (name.isEmpty() || name.equals("/")) {
+					rootEntry = true;
+				} else if (name.equals(JarFile.MANIFEST_NAME)
+						|| name.equals(JarFile.MANIFEST_NAME + "/")) {
+					hasManifest = true;
+					manifest = readManifest(directory);
+				} else if (!hasManifest && manifest == null
+						&& name.equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+					manifest = readManifest(directory);
+				}
+			}
+			entry.setManifest(hasManifest, manifest == null ? null : manifest
+					.getMainAttributes().getValue(Attributes.Name.CLASS_PATH));
+			if (ReleaseOverlay.isMultiRelease(manifest)) {
+				for (String name : overlay.getNames()) {
+					entryNames.add(name);
+					addDirectories(entry.getDirectories(), name);
+				}
+				for (Map.Entry<String, ClassFileAttribute> classEntry : overlay.getClasses().entrySet()) {
+					entry.addClass(classEntry.getKey(), classEntry.getValue());
+				}
+				entry.setRelease(overlay.getRelease());
 			}
+			entry.setRootEntry(rootEntry);
+			entry.setEntryNames(entryNames);
+			return entry;
+		}
+	}
+
+	static ClassFileAttribute toClassFileAttribute(ZipDirectory directory) {
+		ClassFileAttribute classFileAttr = new ClassFileAttribute();
+		classFileAttr.lastModified = directory.getTime();
+		classFileAttr.size = directory.getSize();
+		classFileAttr.signature = directory.getCrc();
+		return classFileAttr;
+	}
+
+	static ClassFileAttribute toClassFileAttribute(BasicFileAttributes attributes) {
+		ClassFileAttribute classFileAttr = new ClassFileAttribute();
+		classFileAttr.lastModified = attributes.lastModifiedTime().toMillis();
+		classFileAttr.size = attributes.size();
+		return classFileAttr;
+	}
+
+	static boolean isManifest(ZipDirectory directory) {
+		return directory.nameLength() == MANIFEST_BYTES.length
+				&& directory.nameStartsWith(MANIFEST_BYTES);
+	}
+
+	static Manifest readManifest(ZipDirectory directory)
+			throws IOException {
+		if (directory.isDirectory()) {
+			return null;
+		}
+		try (InputStream in = directory.getInputStream()) {
+			return new Manifest(in);
+		}
+	}
+
+	/*
+	 * add all directories of resource name, like "", "a/", "a/b/" for "a/b/c"
+	 */
+	static void addDirectories(Set<String> directories, String name) {
+		directories.add("");
+		for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+			directories.add(name.substring(0, i + 1));
+		}
+	}
+
+	/*
+	 * if directory of resource name is exactly the given one, null: never
+	 */
+	static boolean isInDirectory(String name, String directory) {
+		return directory != null && name.lastIndexOf('/') + 1 == directory.length()
+				&& name.startsWith(directory);
+	}
+
+	/*
+	 * directory of resource name, like "a/b/" for "a/b/c"
+	 */
+	static String getDirectory(String name) {
+		return name.substring(0, name.lastIndexOf('/') + 1);
+	}
+
+	static ClassIndex.Entry indexClassFolder(File classFolder) {
+		ClassIndex.Entry entry = new ClassIndex.Entry(classFolder, true);
+		for (Map.Entry<String, BasicFileAttributes> classFile : listClassFiles(classFolder).entrySet()) {
+			entry.addClass(unResolveName(classFile.getKey()), toClassFileAttribute(classFile.getValue()));
+		}
+		entry.setRootEntry(true);
+		return entry;
+	}
+
+	static File toFile(URL url) {
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
 		}
 	}
 
 	private static void getAllClassNames(Map<String, List<URL>> allClassNames,
-			List<URL> resources, SelectFilter<String> filter) {
+			List<URL> resources, SelectFilter<String> filter, ClassIndex index) {
 		Map<String, Map<URL, ClassFileAttribute>> container = new HashMap<>();
-		getAllClassNames(container, resources, filter, false);
+		getAllClassNames(container, resources, filter, false, index);
 		for (Map.Entry<String, Map<URL, ClassFileAttribute>> entry : container.entrySet()) {
 			allClassNames.put(entry.getKey(), new ArrayList<>(entry.getValue().keySet()));
 		}
@@ -386,7 +745,7 @@ final class Util {
 		Collections.addAll(list, finder.findResources(""));
 		Collections.addAll(list, finder.findResources(JarFile.MANIFEST_NAME));
 		Map<String, List<URL>> allClassNames = new TreeMap<>();
-		getAllClassNames(allClassNames, list, filter);
+		getAllClassNames(allClassNames, list, filter, getClassIndex(finder));
 		return allClassNames;
 	}
 	
@@ -396,7 +755,7 @@ final class Util {
 		Collections.addAll(list, finder.findResources(""));
 		Collections.addAll(list, finder.findResources(JarFile.MANIFEST_NAME));
 		Map<String, Map<URL, ClassFileAttribute>> container = new HashMap<>();
-		getAllClassNames(container, list, filter, true);
+		getAllClassNames(container, list, filter, true, getClassIndex(finder));
 		Map<String, Map<URL, Long>> allClassNames = new TreeMap<>();
 		for (Map.Entry<String, Map<URL, ClassFileAttribute>> entry : container
 				.entrySet()) {
@@ -415,58 +774,31 @@ final class Util {
 	}
 
 	static SelectFilter<String> createStartsWith(final String string) {
-		return name -> name.startsWith(string);
-	}
-
-	static SelectFilter<String> createNamePatternFilter(
-			final String classNamePattern) {
 		return new SelectFilter<String>() {
-
-			private final boolean packageBasedSearch = classNamePattern
-					.indexOf('.') >= 0;
-
 			public boolean accept(String name) {
-				if (!packageBasedSearch) {
-					int index = name.lastIndexOf('.');
-					if (index > 0) {
-						name = name.substring(index + 1);
-					}
-				}
-				return Util.wildmatch(name, classNamePattern);
+				return name.startsWith(string);
 			}
 
+			public List<String> getPrefixes() {
+				return Collections.singletonList(string);
+			}
 		};
 	}
 
-	static boolean wildmatch(String str1, String str2) {
-		return wildmatch(str1, str2, 0, 0);
-	}
-
-	private static boolean wildmatch(String str1, String str2, int offset1,
-			int offset2) {
-		char c;
-		final int len1 = str1.length();
-		final int len2 = str2.length();
-
-		while (offset2 < len2) {
-			c = str2.charAt(offset2++);
-			if (c == '?') {
-				if (++offset1 > len1)
-					return false;
-			} else if (c == '*') {
-				if (offset2 >= len2)
-					return true;
-				do {
-					if (wildmatch(str1, str2, offset1, offset2))
-						return true;
-				} while (++offset1 < len1);
-				return false;
-			} else {
-				if (offset1 >= len1 || c != str1.charAt(offset1++))
-					return false;
-			}
+	private static byte[][] toUTF8(List<String> strings) {
+		if (strings == null) {
+			return null;
+		}
+		byte[][] bytes = new byte[strings.size()][];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
 		}
-		return (offset1 == len1);
+		return bytes;
+	}
+
+	static SelectFilter<String> createNamePatternFilter(
+			final String classNamePattern) {
+		return new WildcardMatcher(Collections.singletonList(classNamePattern));
 	}
 
 	@SuppressWarnings("unchecked")
@@ -478,20 +810,35 @@ final class Util {
 		return parentClass::isAssignableFrom;
 	}
 
+	/*
+	 * "" for default package
+	 */
+	static String getPackageName(String className) {
+		int index = className.lastIndexOf('.');
+		return index < 0 ? "" : className.substring(0, index);
+	}
+
 	static SelectFilter<String> createInPackage(final String packageName,
 			final boolean directPackage) {
-		return name -> {
-            if (packageName == null) {
-                // only class name without package if direct package
-                return !directPackage || name.indexOf('.') < 0;
-            } else {
-                if (name.startsWith(packageName + ".")) {
-                    return !directPackage || (name.indexOf('.', packageName.length() + 1) < 0);
-                } else {
-                    return false;
-                }
-            }
-        };
+		final String prefix = packageName == null ? null : packageName + ".";
+		return new SelectFilter<String>() {
+			public boolean accept(String name) {
+				if (packageName == null) {
+					// only class name without package if direct package
+					return !directPackage || name.indexOf('.') < 0;
+				} else {
+					if (name.startsWith(prefix)) {
+						return !directPackage || (name.indexOf('.', prefix.length()) < 0);
+					} else {
+						return false;
+					}
+				}
+			}
+
+			public List<String> getPrefixes() {
+				return prefix == null ? null : Collections.singletonList(prefix);
+			}
+		};
 	}
 
 	@SuppressWarnings("unchecked")
@@ -509,6 +856,20 @@ final class Util {
 		if (name != null && isJarUrl(url)) {
 			url = extractBaseURL(url, name);
 		}
+		if (isJarUrl(url) && url.getFile().indexOf("!/") > 0) {
+			// nested archive, like "/a/app.jar!/WEB-INF/lib/b.jar"
+			String file = url.getFile();
+			int separator = file.indexOf("!/");
+			try {
+				return toAbsolutePath(new URL(file.substring(0, separator)), null) + file.substring(separator);
+			} catch (MalformedURLException e) {
+				return url.getPath();
+			}
+		}
+		if (!isJarUrl(url) && !"file".equals(url.getProtocol())) {
+			// like module of runtime image, "jrt:/java.base/"
+			return url.toString();
+		}
 		try {
 			return new File(url.toURI()).getAbsolutePath();
 		} catch (URISyntaxException e) {
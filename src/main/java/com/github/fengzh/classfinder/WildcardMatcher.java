@@ -0,0 +1,149 @@
+package com.github.fengzh.classfinder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Class name patterns with '*' and '?', compiled once and matched together in
+ * one pass. Pattern without '.' is matched against simple class name.
+ */
+final class WildcardMatcher implements Util.SelectFilter<String> {
+
+	private static class Pattern {
+
+		// literal parts between '*', '?' matches any one char
+		private final String[] segments;
+
+		Pattern(String pattern) {
+			List<String> parts = new ArrayList<>();
+			int start = 0;
+			for (int i = 0; i <= pattern.length(); i++) {
+				if (i == pattern.length() || pattern.charAt(i) == '*') {
+					parts.add(pattern.substring(start, i));
+					start = i + 1;
+				}
+			}
+			segments = parts.toArray(new String[parts.size()]);
+		}
+
+		boolean matches(String name) {
+			String first = segments[0];
+			if (segments.length == 1) {
+				return name.length() == first.length()
+						&& regionMatches(name, 0, first);
+			}
+			String last = segments[segments.length - 1];
+			int end = name.length() - last.length();
+			if (end < first.length() || !regionMatches(name, 0, first)
+					|| !regionMatches(name, end, last)) {
+				return false;
+			}
+			// leftmost match of each middle part, no backtracking needed
+			int offset = first.length();
+			for (int i = 1; i < segments.length - 1; i++) {
+				offset = indexOf(name, segments[i], offset, end);
+				if (offset < 0) {
+					return false;
+				}
+				offset += segments[i].length();
+			}
+			return true;
+		}
+
+		private static int indexOf(String name, String segment, int from,
+				int end) {
+			for (int i = from; i + segment.length() <= end; i++) {
+				if (regionMatches(name, i, segment)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private static boolean regionMatches(String name, int offset,
+				String segment) {
+			for (int i = 0; i < segment.length(); i++) {
+				char c = segment.charAt(i);
+				if (c != '?' && c != name.charAt(offset + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final Set<String> fullNames = new HashSet<>();
+
+	private final Set<String> simpleNames = new HashSet<>();
+
+	private final List<Pattern> fullNamePatterns = new ArrayList<>();
+
+	private final List<Pattern> simpleNamePatterns = new ArrayList<>();
+
+	// null: some pattern is not limited by package
+	private List<String> prefixes = new ArrayList<>();
+
+	WildcardMatcher(Collection<String> patterns) {
+		for (String pattern : patterns) {
+			boolean packageBased = pattern.indexOf('.') >= 0;
+			boolean wildcard = pattern.indexOf('*') >= 0
+					|| pattern.indexOf('?') >= 0;
+			if (!wildcard) {
+				(packageBased ? fullNames : simpleNames).add(pattern);
+			} else {
+				(packageBased ? fullNamePatterns : simpleNamePatterns)
+						.add(new Pattern(pattern));
+			}
+			if (!packageBased) {
+				prefixes = null;
+			} else if (prefixes != null) {
+				int end = 0;
+				while (end < pattern.length() && pattern.charAt(end) != '*'
+						&& pattern.charAt(end) != '?') {
+					end++;
+				}
+				if (end == 0) {
+					prefixes = null;
+				} else {
+					prefixes.add(pattern.substring(0, end));
+				}
+			}
+		}
+	}
+
+	public boolean accept(String name) {
+		if (fullNames.contains(name)) {
+			return true;
+		}
+		for (Pattern pattern : fullNamePatterns) {
+			if (pattern.matches(name)) {
+				return true;
+			}
+		}
+		if (simpleNames.isEmpty() && simpleNamePatterns.isEmpty()) {
+			return false;
+		}
+		int index = name.lastIndexOf('.');
+		String simpleName = index > 0 ? name.substring(index + 1) : name;
+		if (simpleNames.contains(simpleName)) {
+			return true;
+		}
+		for (Pattern pattern : simpleNamePatterns) {
+			if (pattern.matches(simpleName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * literal prefixes all matched names start with, null: any name may match
+	 */
+	public List<String> getPrefixes() {
+		return prefixes;
+	}
+
+}
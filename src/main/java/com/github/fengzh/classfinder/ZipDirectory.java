@@ -0,0 +1,523 @@
+package com.github.fengzh.classfinder;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/*
+ * Central directory of zip file, memory mapped and read in place. Entries are
+ * visited with next(), and name, size, crc and time are decoded only when
+ * asked. Zip content in memory, like nested jar, is read the same way. Not
+ * thread safe.
+ */
+final class ZipDirectory implements Closeable {
+
+	private static final int LOCSIG = 0x04034b50;
+
+	private static final int CENSIG = 0x02014b50;
+
+	private static final int ENDSIG = 0x06054b50;
+
+	private static final int ZIP64_ENDSIG = 0x06064b50;
+
+	private static final int ZIP64_LOCSIG = 0x07064b50;
+
+	private static final int CENHDR = 46;
+
+	private static final int ENDHDR = 22;
+
+	private static final int LOCHDR = 30;
+
+	private static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+
+	private static final byte[] CLASS_SUFFIX = { '.', 'c', 'l', 'a', 's', 's' };
+
+	// one of channel and content is null
+	private final FileChannel channel;
+
+	private final ByteBuffer content;
+
+	private final ByteBuffer cen;
+
+	private final long entryCount;
+
+	// start of zip content, not 0 if data is prepended to zip file
+	private final long locShift;
+
+	// current entry offset, and offset of next one
+	private int pos = -1;
+
+	private int nextPos = 0;
+
+	private ZipDirectory(FileChannel channel, ByteBuffer content,
+			ByteBuffer cen, long entryCount, long locShift) {
+		this.channel = channel;
+		this.content = content;
+		this.cen = cen;
+		this.entryCount = entryCount;
+		this.locShift = locShift;
+		cen.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	static ZipDirectory open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			return open(channel, null, channel.size(), file.getPath());
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * zip content in buffer, from position to limit
+	 */
+	static ZipDirectory open(ByteBuffer content, String zipName)
+			throws IOException {
+		content = content.slice();
+		return open(null, content, content.limit(), zipName);
+	}
+
+	private static ZipDirectory open(FileChannel channel, ByteBuffer content,
+			long length, String zipName) throws IOException {
+		int tailLength = (int) Math.min(length, ENDHDR + 0xFFFF);
+		ByteBuffer tail = read(channel, content, length - tailLength, tailLength);
+		int end = -1;
+		for (int i = tailLength - ENDHDR; i >= 0; i--) {
+			if (tail.getInt(i) == ENDSIG
+					&& i + ENDHDR + (tail.getShort(i + 20) & 0xFFFF) == tailLength) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new ZipException("zip END header not found: " + zipName);
+		}
+		long endPos = length - tailLength + end;
+		long entryCount = tail.getShort(end + 10) & 0xFFFF;
+		long cenSize = tail.getInt(end + 12) & ZIP64_MAGICVAL;
+		long cenOffset = tail.getInt(end + 16) & ZIP64_MAGICVAL;
+		long cenEnd = endPos;
+		if (endPos >= 20) {
+			ByteBuffer locator = read(channel, content, endPos - 20, 20);
+			if (locator.getInt(0) == ZIP64_LOCSIG) {
+				// offset does not count data prepended to zip, then take end
+				// record without extensible data, just before locator
+				long zip64EndPos = locator.getLong(8);
+				if (zip64EndPos < 0 || zip64EndPos > endPos - 20 - 56
+						|| read(channel, content, zip64EndPos, 4).getInt(0)
+								!= ZIP64_ENDSIG) {
+					zip64EndPos = endPos - 20 - 56;
+				}
+				ByteBuffer zip64End = zip64EndPos < 0 ? null : read(channel,
+						content, zip64EndPos, 56);
+				if (zip64End != null && zip64End.getInt(0) == ZIP64_ENDSIG) {
+					entryCount = zip64End.getLong(32);
+					cenSize = zip64End.getLong(40);
+					cenOffset = zip64End.getLong(48);
+					cenEnd = zip64EndPos;
+				}
+			}
+		}
+		long cenPos = cenEnd - cenSize;
+		if (cenPos < 0 || cenSize > Integer.MAX_VALUE) {
+			throw new ZipException("invalid zip CEN header: " + zipName);
+		}
+		ByteBuffer cen = map(channel, content, cenPos, cenSize);
+		return new ZipDirectory(channel, content, cen, entryCount, cenPos
+				- cenOffset);
+	}
+
+	private static ByteBuffer map(FileChannel channel, ByteBuffer content,
+			long position, long length) throws IOException {
+		if (channel != null) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+		}
+		if (position < 0 || position + length > content.limit()) {
+			throw new ZipException("unexpected end of zip file");
+		}
+		ByteBuffer slice = content.duplicate();
+		slice.limit((int) (position + length)).position((int) position);
+		return slice.slice();
+	}
+
+	private static ByteBuffer read(FileChannel channel, ByteBuffer content,
+			long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(
+				ByteOrder.LITTLE_ENDIAN);
+		if (channel == null) {
+			buffer.put(map(null, content, position, length));
+			buffer.flip();
+			return buffer;
+		}
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new ZipException("unexpected end of zip file");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/*
+	 * entry count in central directory
+	 */
+	long size() {
+		return entryCount;
+	}
+
+	/*
+	 * move to next entry, false: no more entry
+	 */
+	boolean next() throws ZipException {
+		if (nextPos + CENHDR > cen.limit()) {
+			return false;
+		}
+		if (cen.getInt(nextPos) != CENSIG) {
+			throw new ZipException("invalid zip CEN header");
+		}
+		pos = nextPos;
+		nextPos = pos + CENHDR + nameLength() + get16(30) + get16(32);
+		if (nextPos > cen.limit()) {
+			throw new ZipException("invalid zip CEN header");
+		}
+		return true;
+	}
+
+	private int get16(int offset) {
+		return cen.getShort(pos + offset) & 0xFFFF;
+	}
+
+	private long get32(int offset) {
+		return cen.getInt(pos + offset) & ZIP64_MAGICVAL;
+	}
+
+	int nameLength() {
+		return get16(28);
+	}
+
+	byte nameByteAt(int index) {
+		return cen.get(pos + CENHDR + index);
+	}
+
+	boolean nameStartsWith(byte[] prefix) {
+		if (prefix.length > nameLength()) {
+			return false;
+		}
+		int start = pos + CENHDR;
+		for (int i = 0; i < prefix.length; i++) {
+			if (cen.get(start + i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	boolean nameEndsWith(byte[] suffix) {
+		int length = nameLength();
+		if (suffix.length > length) {
+			return false;
+		}
+		int start = pos + CENHDR + length - suffix.length;
+		for (int i = 0; i < suffix.length; i++) {
+			if (cen.get(start + i) != suffix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * if class name of entry starts with any of prefixes, compared on UTF-8
+	 * bytes with '/' in entry name same as '.', null: no restriction
+	 */
+	boolean classNameStartsWith(byte[][] prefixes) {
+		if (prefixes == null) {
+			return true;
+		}
+		int start = pos + CENHDR;
+		int length = nameLength();
+		next: for (byte[] prefix : prefixes) {
+			if (prefix.length > length) {
+				continue;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				byte b = cen.get(start + i);
+				if (b != prefix[i] && !(b == '/' && prefix[i] == '.')) {
+					continue next;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	boolean isDirectory() {
+		int length = nameLength();
+		return length > 0 && nameByteAt(length - 1) == '/';
+	}
+
+	boolean isClassFile() {
+		return !isDirectory() && nameEndsWith(CLASS_SUFFIX);
+	}
+
+	String getName() {
+		return decode(0, nameLength(), false);
+	}
+
+	/*
+	 * class name of class file entry, like "a.b.C" for "a/b/C.class"
+	 */
+	String getClassName() {
+		return decode(0, nameLength() - CLASS_SUFFIX.length, true);
+	}
+
+	private String decode(int from, int to, boolean dotted) {
+		int start = pos + CENHDR;
+		char[] chars = new char[to - from];
+		for (int i = from; i < to; i++) {
+			byte b = cen.get(start + i);
+			if (b < 0) {
+				// not ascii, decode as UTF-8
+				byte[] bytes = new byte[to - from];
+				for (int j = from; j < to; j++) {
+					bytes[j - from] = cen.get(start + j);
+				}
+				String name = new String(bytes, StandardCharsets.UTF_8);
+				return dotted ? name.replace('/', '.') : name;
+			}
+			chars[i - from] = dotted && b == '/' ? '.' : (char) b;
+		}
+		return new String(chars);
+	}
+
+	long getCrc() {
+		return get32(16);
+	}
+
+	long getSize() {
+		long size = get32(24);
+		if (size == ZIP64_MAGICVAL) {
+			int extra = findExtra(0x0001);
+			if (extra >= 0 && get16(extra - 2) >= 8) {
+				size = cen.getLong(pos + extra);
+			}
+		}
+		return size;
+	}
+
+	private long getCompressedSize() {
+		long csize = get32(20);
+		if (csize == ZIP64_MAGICVAL) {
+			int extra = findExtra(0x0001);
+			if (extra >= 0) {
+				int offset = extra + (get32(24) == ZIP64_MAGICVAL ? 8 : 0);
+				if (offset + 8 <= extra + get16(extra - 2)) {
+					csize = cen.getLong(pos + offset);
+				}
+			}
+		}
+		return csize;
+	}
+
+	private long getLocalHeaderOffset() {
+		long offset = get32(42);
+		if (offset == ZIP64_MAGICVAL) {
+			int extra = findExtra(0x0001);
+			if (extra >= 0) {
+				int field = extra + (get32(24) == ZIP64_MAGICVAL ? 8 : 0)
+						+ (get32(20) == ZIP64_MAGICVAL ? 8 : 0);
+				if (field + 8 <= extra + get16(extra - 2)) {
+					offset = cen.getLong(pos + field);
+				}
+			}
+		}
+		return offset;
+	}
+
+	/*
+	 * offset of extra field data relative to entry, -1: not found
+	 */
+	private int findExtra(int tag) {
+		int offset = CENHDR + nameLength();
+		int end = offset + get16(30);
+		while (offset + 4 < end) {
+			int size = get16(offset + 2);
+			if (offset + 4 + size > end) {
+				break;
+			}
+			if (get16(offset) == tag) {
+				return offset + 4;
+			}
+			offset += 4 + size;
+		}
+		return -1;
+	}
+
+	/*
+	 * same as ZipEntry.getTime(): extended timestamp or NTFS time if present,
+	 * otherwise DOS time in default time zone
+	 */
+	long getTime() {
+		long mtime = Long.MIN_VALUE;
+		int offset = CENHDR + nameLength();
+		int end = offset + get16(30);
+		while (offset + 4 < end) {
+			int tag = get16(offset);
+			int size = get16(offset + 2);
+			offset += 4;
+			if (offset + size > end) {
+				break;
+			}
+			if (tag == 0x5455) {
+				int flag = cen.get(pos + offset) & 0xFF;
+				if ((flag & 0x1) != 0 && 5 <= size) {
+					mtime = cen.getInt(pos + offset + 1) * 1000L;
+				}
+			} else if (tag == 0x000a && size >= 32) {
+				int field = offset + 4;
+				if (get16(field) == 0x0001 && get16(field + 2) == 24) {
+					long winTime = cen.getLong(pos + field + 4);
+					if (winTime != Long.MIN_VALUE) {
+						// 100ns since 1601 -> ms since 1970
+						mtime = Math.floorDiv(winTime / 10 - 11644473600000000L,
+								1000L);
+					}
+				}
+			}
+			offset += size;
+		}
+		return mtime != Long.MIN_VALUE ? mtime : dosToJavaTime(get32(12));
+	}
+
+	@SuppressWarnings("deprecation")
+	private static long dosToJavaTime(long dtime) {
+		int year = (int) (((dtime >> 25) & 0x7f) + 1980);
+		int month = (int) ((dtime >> 21) & 0x0f);
+		int day = (int) ((dtime >> 16) & 0x1f);
+		int hour = (int) ((dtime >> 11) & 0x1f);
+		int minute = (int) ((dtime >> 5) & 0x3f);
+		int second = (int) ((dtime << 1) & 0x3e);
+		if (month > 0 && month < 13 && day > 0 && hour < 24 && minute < 60
+				&& second < 60) {
+			try {
+				LocalDateTime ldt = LocalDateTime.of(year, month, day, hour,
+						minute, second);
+				return ldt.toEpochSecond(ZoneId.systemDefault().getRules()
+						.getOffset(ldt)) * 1000L;
+			} catch (DateTimeException ignored) {
+			}
+		}
+		return new Date(year - 1900, month - 1, day, hour, minute, second)
+				.getTime();
+	}
+
+	/*
+	 * content of current entry, read fully, for small entries like manifest
+	 */
+	InputStream getInputStream() throws IOException {
+		byte[] bytes = readBytes();
+		return new ByteArrayInputStream(bytes);
+	}
+
+	/*
+	 * content of current entry, inflated at once, so native memory of
+	 * inflater is released here, not left to garbage collection
+	 */
+	private byte[] readBytes() throws IOException {
+		int csize = checkedSize(getCompressedSize());
+		ByteBuffer data = read(channel, content, getDataPosition(), csize);
+		int method = get16(10);
+		if (method == 0) {
+			return data.array();
+		} else if (method != 8) {
+			throw new ZipException("unsupported compression method: "
+					+ method);
+		}
+		byte[] bytes = new byte[checkedSize(getSize())];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(data.array(), 0, csize);
+			int length = 0;
+			while (length < bytes.length) {
+				int n = inflater.inflate(bytes, length, bytes.length - length);
+				if (n == 0 && (inflater.finished() || inflater.needsInput()
+						|| inflater.needsDictionary())) {
+					throw new ZipException("invalid compressed size: "
+							+ getName());
+				}
+				length += n;
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("invalid compressed data: " + getName());
+		} finally {
+			inflater.end();
+		}
+		return bytes;
+	}
+
+	/*
+	 * content of current entry, stored one is mapped in place, compressed one
+	 * is inflated into memory
+	 */
+	ByteBuffer getContent() throws IOException {
+		if (get16(10) == 0) {
+			return map(channel, content, getDataPosition(), getCompressedSize());
+		}
+		return ByteBuffer.wrap(readBytes());
+	}
+
+	private int checkedSize(long size) throws ZipException {
+		if (size > Integer.MAX_VALUE) {
+			throw new ZipException("entry too large: " + getName());
+		}
+		return (int) size;
+	}
+
+	private long getDataPosition() throws IOException {
+		long locPos = getLocalHeaderOffset() + locShift;
+		ByteBuffer loc = read(channel, content, locPos, LOCHDR);
+		if (loc.getInt(0) != LOCSIG) {
+			throw new ZipException("invalid zip LOC header: " + getName());
+		}
+		return locPos + LOCHDR + (loc.getShort(26) & 0xFFFF)
+				+ (loc.getShort(28) & 0xFFFF);
+	}
+
+	/*
+	 * position of current entry, to move back to it later
+	 */
+	int position() {
+		return pos;
+	}
+
+	void moveTo(int position) throws ZipException {
+		nextPos = position;
+		if (!next()) {
+			throw new ZipException("invalid zip CEN position: " + position);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+}
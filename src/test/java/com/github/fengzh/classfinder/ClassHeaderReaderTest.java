@@ -0,0 +1,144 @@
+package com.github.fengzh.classfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+import com.github.fengzh.classfinder.ClassParserProvider.Jclass;
+
+/*
+ * ClassHeaderReader gives same names as ASM
+ */
+public class ClassHeaderReaderTest {
+
+	@Test
+	public void readsSameNamesAsAsmFromJarFile() throws IOException {
+		File jarFile = Util.toFile(ClassReader.class.getProtectionDomain()
+				.getCodeSource().getLocation());
+		int count = 0;
+		try (JarFile jar = new JarFile(jarFile)) {
+			for (Enumeration<JarEntry> entries = jar.entries(); entries
+					.hasMoreElements();) {
+				JarEntry entry = entries.nextElement();
+				if (entry.getName().endsWith(".class")) {
+					try (InputStream in = jar.getInputStream(entry)) {
+						assertSameAsAsm(readBytes(in), jarFile + "!/"
+								+ entry.getName());
+					}
+					count++;
+				}
+			}
+		}
+		assertTrue("no class in " + jarFile, count > 0);
+	}
+
+	@Test
+	public void readsSameNamesAsAsmFromRuntimeImage() throws IOException {
+		File javaHome = Util.getJavaHome();
+		if (!RuntimeImage.hasRuntimeImage(javaHome)) {
+			return;
+		}
+		RuntimeImage image = RuntimeImage.get(javaHome);
+		for (URL module : image.getModuleURLs()) {
+			for (String className : image.getClasses(module).keySet()) {
+				String name = Util.resolveName(className);
+				try (InputStream in = image.getInputStream(module, name)) {
+					assertSameAsAsm(readBytes(in), module + name);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void slotAfterLongConstantIsNotTakenFromPreviousClass()
+			throws IOException {
+		assertSameAsAsm(buildClass(false), "class with Class constant at #2");
+		try {
+			ClassHeaderReader.read(new ByteArrayInputStream(buildClass(true)));
+			fail("super class at Long slot is accepted");
+		} catch (IOException expected) {
+		}
+	}
+
+	private static void assertSameAsAsm(byte[] bytes, String source)
+			throws IOException {
+		ClassReader reader = new ClassReader(bytes);
+		Jclass jclass = ClassHeaderReader.read(new ByteArrayInputStream(bytes));
+		String superName = reader.getSuperName();
+		String[] interfaces = reader.getInterfaces();
+		for (int i = 0; i < interfaces.length; i++) {
+			interfaces[i] = interfaces[i].replace('/', '.');
+		}
+		assertEquals(source, reader.getClassName().replace('/', '.'),
+				jclass.getClassName());
+		assertEquals(source, superName == null ? Object.class.getName()
+				: superName.replace('/', '.'), jclass.getSuperClassName());
+		assertArrayEquals(source, interfaces, jclass.getInterfaceNames());
+	}
+
+	/*
+	 * longSlot false: class "A" with Class constant at #2, true: class "B"
+	 * whose super class index is the unusable slot after Long constant at #1,
+	 * at the position of #2 of "A"
+	 */
+	private static byte[] buildClass(boolean longSlot) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(52);
+		out.writeShort(5);
+		if (longSlot) {
+			// #1 Long, its 4th byte looks like Class tag of #2 in "A" naming #3
+			out.writeByte(5);
+			out.write(new byte[] { 0, 0, 0, 7, 0, 3, 0, 0 });
+			out.writeByte(1);
+			out.writeUTF("B");
+			out.writeByte(7);
+			out.writeShort(3);
+		} else {
+			out.writeByte(1);
+			out.writeUTF("A");
+			out.writeByte(7);
+			out.writeShort(1);
+			out.writeByte(1);
+			out.writeUTF("java/lang/Object");
+			out.writeByte(7);
+			out.writeShort(3);
+		}
+		out.writeShort(0x21);
+		out.writeShort(longSlot ? 4 : 2);
+		out.writeShort(longSlot ? 2 : 4);
+		out.writeShort(0);
+		out.writeShort(0);
+		out.writeShort(0);
+		out.writeShort(0);
+		return bytes.toByteArray();
+	}
+
+	private static byte[] readBytes(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+}
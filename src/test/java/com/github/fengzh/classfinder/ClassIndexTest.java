@@ -0,0 +1,100 @@
+package com.github.fengzh.classfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.fengzh.classfinder.Util.ClassFileAttribute;
+
+/*
+ * ClassIndex keeps entry of multi-release jar and class data over save and
+ * load, and the entry is not taken for other target release
+ */
+public class ClassIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final int targetRelease = ReleaseOverlay.getTargetRelease();
+
+	@After
+	public void restoreTargetRelease() {
+		ReleaseOverlay.setTargetRelease(targetRelease);
+	}
+
+	@Test
+	public void keepsMultiReleaseJarOverSaveAndLoad() throws IOException {
+		File jarFile = folder.newFile("a.jar");
+		File indexFile = new File(folder.getRoot(), "a.idx");
+		writeMultiReleaseJar(jarFile);
+		ReleaseOverlay.setTargetRelease(8);
+		ClassIndex.Entry baseEntry = Util.indexJarFile(jarFile);
+		ReleaseOverlay.setTargetRelease(11);
+		ClassIndex index = new ClassIndex();
+		ClassIndex.Entry entry = Util.indexJarFile(jarFile);
+		index.putEntry(entry);
+		assertSame(entry, index.getEntry(jarFile));
+		String[] superTypes = { "java.lang.Object", "java.io.Serializable" };
+		String[][] references = { { "a.C" }, { "run" }, { "value" } };
+		String[] strings = { "text" };
+		index.putSuperTypes(jarFile, "a.B", superTypes);
+		index.putReferences(jarFile, "a.B", references);
+		index.putStrings(jarFile, "a.B", strings);
+		index.save(indexFile);
+
+		ClassIndex loaded = new ClassIndex();
+		loaded.load(indexFile);
+		ReleaseOverlay.setTargetRelease(12);
+		assertNull("index entry is taken for other release",
+				loaded.getEntry(jarFile));
+		ReleaseOverlay.setTargetRelease(11);
+		ClassIndex.Entry loadedEntry = loaded.getEntry(jarFile);
+		assertNotNull(loadedEntry);
+		assertEquals(entry.getClasses().keySet(), loadedEntry.getClasses()
+				.keySet());
+		assertEquals(entry.getDirectories(), loadedEntry.getDirectories());
+		assertEquals(entry.hasManifest(), loadedEntry.hasManifest());
+		ClassFileAttribute attribute = loadedEntry.getClasses().get("a.B");
+		assertTrue("versioned class is not in loaded index entry", attribute
+				.isSameContent(entry.getClasses().get("a.B")));
+		assertFalse(attribute.isSameContent(baseEntry.getClasses().get("a.B")));
+		assertArrayEquals(superTypes, loaded.getSuperTypes(jarFile, "a.B"));
+		assertArrayEquals(references, loaded.getReferences(jarFile, "a.B"));
+		assertArrayEquals(strings, loaded.getStrings(jarFile, "a.B"));
+	}
+
+	private static void writeMultiReleaseJar(File file) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"),
+				"true");
+		try (JarOutputStream out = new JarOutputStream(
+				new FileOutputStream(file), manifest)) {
+			out.putNextEntry(new JarEntry("a/B.class"));
+			out.write("base".getBytes(StandardCharsets.UTF_8));
+			out.putNextEntry(new JarEntry("a/C.class"));
+			out.write("base".getBytes(StandardCharsets.UTF_8));
+			out.putNextEntry(new JarEntry(ReleaseOverlay.VERSIONS + "9/a/B.class"));
+			out.write("release 9".getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+}
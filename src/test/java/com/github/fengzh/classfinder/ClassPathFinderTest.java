@@ -0,0 +1,133 @@
+package com.github.fengzh.classfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class ClassPathFinderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/*
+	 * a.A refers to b.B only as type of field c.C.b, and c.C is not in class
+	 * path
+	 */
+	@Test
+	public void jarReachedByFieldTypeIsUsed() throws IOException {
+		File aJar = folder.newFile("a.jar");
+		File bJar = folder.newFile("b.jar");
+		File unusedJar = folder.newFile("unused.jar");
+		writeJar(aJar, "a/A", buildClass("a/A", "c/C", "b", "Lb/B;"));
+		writeJar(bJar, "b/B", buildClass("b/B", null, null, null));
+		writeJar(unusedJar, "d/D", buildClass("d/D", null, null, null));
+		ClassPathFinder finder = new ClassPathFinder(new DefaultClassPathBuilder(
+				new File[] { aJar, bJar, unusedJar }));
+		URL[] unused = finder.findUnusedSources(Collections.singleton("a.A"));
+		assertEquals(Arrays.asList(unusedJar.toURI().toURL()), Arrays.asList(unused));
+		assertArrayEquals(new String[] { "b.B" }, filter(finder
+				.findDependencies("a.A"), "b."));
+	}
+
+	/*
+	 * class locations are patched in place when classes of a jar change, and
+	 * are same as built again from scratch
+	 */
+	@Test
+	public void refreshPatchesClassLocationsOfModifiedJar() throws IOException {
+		File aJar = folder.newFile("a.jar");
+		File bJar = folder.newFile("b.jar");
+		writeJar(aJar, "p/A", "p/B");
+		writeJar(bJar, "p/B", "p/C");
+		ClassPathBuilder builder = new DefaultClassPathBuilder(new File[] {
+				aJar, bJar });
+		ClassPathFinder finder = new ClassPathFinder(builder);
+		finder.enableIndex();
+		Map<String, List<URL>> classLocations = finder.getClassLocations();
+		writeJar(aJar, "p/A", "p/C", "p/D");
+		aJar.setLastModified(aJar.lastModified() + 2000);
+		List<ClassPathFinder.IndexChange> changes = finder.refreshIndex();
+		assertEquals(1, changes.size());
+		assertEquals(ClassPathFinder.IndexChange.Type.MODIFIED, changes.get(0)
+				.getType());
+		assertSame(classLocations, finder.getClassLocations());
+		assertEquals(new ClassPathFinder(builder).getClassLocations(),
+				classLocations);
+		assertEquals(Arrays.asList(aJar.toURI().toURL(), bJar.toURI().toURL()),
+				classLocations.get("p.C"));
+	}
+
+	private static String[] filter(String[] classNames, String prefix) {
+		return Arrays.stream(classNames).filter(name -> name.startsWith(prefix))
+				.toArray(String[]::new);
+	}
+
+	/*
+	 * class with a method reading static field of owner, if owner is given
+	 */
+	private static byte[] buildClass(String name, String fieldOwner,
+			String fieldName, String fieldDesc) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null,
+				"java/lang/Object", null);
+		if (fieldOwner != null) {
+			MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC
+					| Opcodes.ACC_STATIC, "read", "()V", null, null);
+			method.visitCode();
+			method.visitFieldInsn(Opcodes.GETSTATIC, fieldOwner, fieldName,
+					fieldDesc);
+			method.visitInsn(Opcodes.POP);
+			method.visitInsn(Opcodes.RETURN);
+			method.visitMaxs(0, 0);
+			method.visitEnd();
+		}
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private static void writeJar(File file, String className, byte[] bytes)
+			throws IOException {
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(
+				file))) {
+			out.putNextEntry(new JarEntry(className + ".class"));
+			out.write(bytes);
+		}
+	}
+
+	/*
+	 * with manifest, as jar is listed by its manifest entry
+	 */
+	private static void writeJar(File file, String... classNames)
+			throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(
+				file), manifest)) {
+			for (String className : classNames) {
+				out.putNextEntry(new JarEntry(className + ".class"));
+				out.write(buildClass(className, null, null, null));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.github.fengzh.classfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/*
+ * CycleDetector gives same components as transitive closure on random graphs
+ * with self and duplicate edges, and one component on a ring too deep for
+ * recursion
+ */
+public class CycleDetectorTest {
+
+	@Test
+	public void findsSameCyclesAsTransitiveClosure() {
+		Random random = new Random(0);
+		for (int graph = 0; graph < 300; graph++) {
+			int nodeCount = 1 + random.nextInt(30);
+			int edgeCount = random.nextInt(nodeCount * 3);
+			CycleDetector detector = new CycleDetector(nodeCount);
+			boolean[][] reach = new boolean[nodeCount][nodeCount];
+			for (int i = 0; i < edgeCount; i++) {
+				int from = random.nextInt(nodeCount);
+				int to = random.nextInt(nodeCount);
+				detector.addEdge(from, to);
+				detector.addEdge(from, to);
+				reach[from][to] = from != to;
+			}
+			for (int k = 0; k < nodeCount; k++) {
+				for (int i = 0; i < nodeCount; i++) {
+					for (int j = 0; j < nodeCount; j++) {
+						reach[i][j] |= reach[i][k] && reach[k][j];
+					}
+				}
+			}
+			List<int[]> expected = new ArrayList<>();
+			boolean[] found = new boolean[nodeCount];
+			for (int i = 0; i < nodeCount; i++) {
+				if (found[i] || !reach[i][i]) {
+					continue;
+				}
+				int[] component = new int[0];
+				for (int j = i; j < nodeCount; j++) {
+					if (j == i || reach[i][j] && reach[j][i]) {
+						found[j] = true;
+						component = Arrays.copyOf(component, component.length + 1);
+						component[component.length - 1] = j;
+					}
+				}
+				expected.add(component);
+			}
+			List<int[]> actual = detector.findCycles();
+			assertEquals("cycle count in graph " + graph, expected.size(),
+					actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertArrayEquals("cycle in graph " + graph, expected.get(i),
+						actual.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void findsRingTooDeepForRecursion() {
+		int ringSize = 500000;
+		CycleDetector detector = new CycleDetector(ringSize);
+		for (int i = 0; i < ringSize; i++) {
+			detector.addEdge(i, (i + 1) % ringSize);
+		}
+		List<int[]> cycles = detector.findCycles();
+		assertEquals(1, cycles.size());
+		assertEquals(ringSize, cycles.get(0).length);
+	}
+
+}
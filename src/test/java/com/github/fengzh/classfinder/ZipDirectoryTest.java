@@ -0,0 +1,126 @@
+package com.github.fengzh.classfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/*
+ * ZipDirectory gives same entries as ZipFile, on zip file of more entries than
+ * zip end header holds, so it has ZIP64 end records, and on same zip in buffer
+ * as nested jar, between outer bytes and with data prepended
+ */
+public class ZipDirectoryTest {
+
+	private static final int ENTRY_COUNT = 0x10000 + 16;
+
+	private static File zipFile;
+
+	@BeforeClass
+	public static void writeZipFile() throws IOException {
+		zipFile = File.createTempFile("classfinder", ".zip");
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(
+				zipFile))) {
+			out.putNextEntry(new ZipEntry("a/"));
+			byte[] stored = "stored content".getBytes(StandardCharsets.UTF_8);
+			ZipEntry entry = new ZipEntry("a/Stored.class");
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(stored.length);
+			CRC32 crc = new CRC32();
+			crc.update(stored);
+			entry.setCrc(crc.getValue());
+			out.putNextEntry(entry);
+			out.write(stored);
+			out.putNextEntry(new ZipEntry("a/Empty.class"));
+			for (int i = 3; i < ENTRY_COUNT; i++) {
+				out.putNextEntry(new ZipEntry("b/" + i + ".txt"));
+				for (int j = 0; j < i % 7; j++) {
+					out.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+	}
+
+	@AfterClass
+	public static void deleteZipFile() {
+		zipFile.delete();
+	}
+
+	@Test
+	public void readsSameEntriesAsZipFileWithZip64End() throws IOException {
+		try (ZipDirectory directory = ZipDirectory.open(zipFile)) {
+			assertSameEntries(directory, zipFile);
+		}
+	}
+
+	@Test
+	public void readsSameEntriesAsZipFileInBuffer() throws IOException {
+		byte[] zip = Files.readAllBytes(zipFile.toPath());
+		byte[] outer = new byte[16 + 32 + zip.length + 16];
+		Arrays.fill(outer, (byte) 'x');
+		System.arraycopy(zip, 0, outer, 16 + 32, zip.length);
+		ByteBuffer content = ByteBuffer.wrap(outer, 16, 32 + zip.length);
+		try (ZipDirectory directory = ZipDirectory.open(content,
+				zipFile.getName())) {
+			assertSameEntries(directory, zipFile);
+		}
+	}
+
+	private static void assertSameEntries(ZipDirectory directory, File file)
+			throws IOException {
+		try (ZipFile zip = new ZipFile(file)) {
+			assertEquals(zip.size(), directory.size());
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (directory.next()) {
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+				assertEquals(name, directory.getName());
+				assertEquals(name, entry.isDirectory(), directory.isDirectory());
+				assertEquals(name, name.endsWith(".class"), directory.isClassFile());
+				assertEquals(name, entry.getSize(), directory.getSize());
+				assertEquals(name, entry.getCrc(), directory.getCrc());
+				assertEquals(name, entry.getTime(), directory.getTime());
+				if (!entry.isDirectory()) {
+					byte[] expected;
+					try (InputStream in = zip.getInputStream(entry)) {
+						expected = readBytes(in);
+					}
+					ByteBuffer content = directory.getContent();
+					byte[] actual = new byte[content.remaining()];
+					content.get(actual);
+					assertArrayEquals(name, expected, actual);
+				}
+			}
+			assertFalse("zip entries are missed", entries.hasMoreElements());
+		}
+	}
+
+	private static byte[] readBytes(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+}